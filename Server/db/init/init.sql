@@ -2,21 +2,57 @@
 CREATE DATABASE IF NOT EXISTS UBICOMP CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci;
 USE UBICOMP;
 
--- Table to store sensor readings from the weather stations
--- Columns for identification and position are NOT NULL (always provided).
--- Measurement fields are nullable because sensors may omit some values.
-CREATE TABLE IF NOT EXISTS sensor_readings (
-  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+-- Catalog of stations: one row per distinct combination of a sensor's
+-- metadata, so that reading rows only carry a 4-byte station_key. A station
+-- that moves or is renamed gets a new row; older readings keep the old one.
+-- meta_hash makes the combination unique even where it is NULL.
+CREATE TABLE IF NOT EXISTS stations (
+  station_key INT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
   sensor_id VARCHAR(64) NOT NULL,
   sensor_type VARCHAR(64) NOT NULL,
   street_id VARCHAR(64) NOT NULL,
-    -- No automatic timestamps: recorded_at is provided by the sensor
-  recorded_at TIMESTAMP NULL,
   latitude DOUBLE NULL,
   longitude DOUBLE NULL,
   altitude DOUBLE NULL,
   district VARCHAR(128) NULL,
   neighborhood VARCHAR(128) NULL,
+  first_seen TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  -- text fields are length-prefixed so that no value (a '|' in a street name) can
+  -- make two different combinations hash the same string
+  meta_hash BINARY(16) AS (UNHEX(MD5(CONCAT_WS('|',
+    CONCAT(CHAR_LENGTH(sensor_id), ':', sensor_id),
+    CONCAT(CHAR_LENGTH(sensor_type), ':', sensor_type),
+    CONCAT(CHAR_LENGTH(street_id), ':', street_id),
+    IFNULL(latitude, 'N'), IFNULL(longitude, 'N'), IFNULL(altitude, 'N'),
+    IFNULL(CONCAT(CHAR_LENGTH(district), ':', district), 'N'),
+    IFNULL(CONCAT(CHAR_LENGTH(neighborhood), ':', neighborhood), 'N'))))) PERSISTENT,
+  UNIQUE KEY uq_station_meta (meta_hash),
+  INDEX idx_station_sensor (sensor_id),
+  INDEX idx_station_street (street_id),
+  INDEX idx_station_location (latitude, longitude)
+);
+
+-- Streets the stations report, so that reading rows can carry a 4-byte street_key
+-- and street-filtered pages use an index of their own (see the view below).
+CREATE TABLE IF NOT EXISTS streets (
+  street_key INT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  street_id VARCHAR(64) NOT NULL,
+  UNIQUE KEY uq_street_id (street_id)
+);
+
+-- Table to store sensor readings from the weather stations, read through the
+-- sensor_readings view below.
+-- Measurement fields are nullable because sensors may omit some values.
+-- Partitioned by RANGE on recorded_at (one partition per day or month); the
+-- server's PartitionManager creates upcoming partitions and drops expired ones.
+CREATE TABLE IF NOT EXISTS sensor_readings_base (
+  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,
+  sensor_id VARCHAR(64) NOT NULL,
+  station_key INT UNSIGNED NOT NULL,
+  street_key INT UNSIGNED NOT NULL,
+    -- No automatic timestamps: recorded_at is provided by the sensor
+    -- (the server uses the arrival time when a reading has none)
+  recorded_at TIMESTAMP NOT NULL,
 
   -- Common sensor measurements (nullable)
   temp DOUBLE NULL,
@@ -43,12 +79,56 @@ CREATE TABLE IF NOT EXISTS sensor_readings (
   sensor_heat_comp_temp DOUBLE NULL,
   sensor_heat_comp_hum DOUBLE NULL,
 
-  -- No automatic timestamps: recorded_at is provided by the sensor
-
+  -- Every unique key of a partitioned table must contain the partitioning column
+  PRIMARY KEY (id, recorded_at),
   INDEX idx_sensor_time (sensor_id, recorded_at),
-  INDEX idx_lat_long (latitude, longitude)
+  -- keyset pagination walks (recorded_at, id); InnoDB appends the primary key to
+  -- every secondary index, so these also serve ORDER BY recorded_at, id
+  INDEX idx_recorded_at (recorded_at),
+  INDEX idx_station_time (station_key, recorded_at),
+  INDEX idx_street_time (street_key, recorded_at)
+)
+PARTITION BY RANGE (UNIX_TIMESTAMP(recorded_at)) (
+  PARTITION p_start VALUES LESS THAN (1),
+  PARTITION p_future VALUES LESS THAN MAXVALUE
 );
 
+-- The readings with their station's metadata, column for column as the former
+-- sensor_readings table; every query reads this, ingest writes the base table.
+-- street_id comes from `streets`: a street_id = ? filter then reads that one row
+-- by its unique key first and pages the readings along idx_street_time.
+CREATE OR REPLACE ALGORITHM = MERGE VIEW sensor_readings AS
+SELECT r.id, r.sensor_id, s.sensor_type, t.street_id, r.recorded_at,
+       s.latitude, s.longitude, s.altitude, s.district, s.neighborhood,
+       r.temp, r.humid, r.aqi, r.lux, r.sound_db, r.atmhpa, r.uv_index,
+       r.bsec_status, r.iaq, r.static_iaq, r.co2_eq, r.breath_voc_eq, r.raw_temperature, r.raw_humidity,
+       r.pressure_hpa, r.gas_resistance_ohm, r.gas_percentage, r.stabilization_status, r.run_in_status,
+       r.sensor_heat_comp_temp, r.sensor_heat_comp_hum
+  FROM sensor_readings_base r
+  JOIN stations s ON s.station_key = r.station_key
+  JOIN streets t ON t.street_key = r.street_key;
+
+-- Rollups of every measurement per sensor and 1-minute, 1-hour and 1-day bucket,
+-- maintained by the server in the same transaction as each sensor_readings batch.
+-- bucket_start is the start of the bucket (days start at midnight server time).
+CREATE TABLE IF NOT EXISTS sensor_rollup_1m (
+  sensor_id VARCHAR(64) NOT NULL,
+  parameter VARCHAR(64) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  cnt BIGINT UNSIGNED NOT NULL,
+  min_value DOUBLE NOT NULL,
+  max_value DOUBLE NOT NULL,
+  sum_value DOUBLE NOT NULL,
+  last_value DOUBLE NOT NULL,
+  last_at TIMESTAMP NOT NULL,
+  PRIMARY KEY (sensor_id, parameter, bucket_start),
+  -- retention deletes expired buckets by time (RetentionEngine)
+  INDEX idx_bucket_start (bucket_start)
+);
+
+CREATE TABLE IF NOT EXISTS sensor_rollup_1h LIKE sensor_rollup_1m;
+CREATE TABLE IF NOT EXISTS sensor_rollup_1d LIKE sensor_rollup_1m;
+
 -- Table to store user credentials and roles
 CREATE TABLE IF NOT EXISTS users (
   id INT AUTO_INCREMENT PRIMARY KEY,
@@ -0,0 +1,17 @@
+-- Optional: make (sensor_id, recorded_at) unique in sensor_readings.
+-- Run once against an existing database, then start Tomcat with
+-- -Dmeteu.insert.idempotent=true so repeated readings are ignored on insert
+-- (INSERT ... ON DUPLICATE KEY UPDATE id = id) instead of failing their batch.
+USE UBICOMP;
+
+-- Remove duplicates already stored, keeping the first row of each pair
+DELETE r FROM sensor_readings r
+  JOIN sensor_readings k
+    ON k.sensor_id = r.sensor_id
+   AND k.recorded_at = r.recorded_at
+   AND k.id < r.id;
+
+-- The unique index also serves every lookup idx_sensor_time did
+ALTER TABLE sensor_readings
+  ADD UNIQUE INDEX uq_sensor_time (sensor_id, recorded_at),
+  DROP INDEX idx_sensor_time;
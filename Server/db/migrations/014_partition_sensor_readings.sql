@@ -0,0 +1,25 @@
+-- Convert an existing sensor_readings table to RANGE partitions on recorded_at.
+-- Rebuilds the table once (copies every row): run it in a maintenance window.
+-- Afterwards the server's PartitionManager splits p_future into day (or month)
+-- partitions ahead of time and drops the ones older than
+-- meteu.partition.retention.days.
+USE UBICOMP;
+
+-- recorded_at becomes part of the primary key, so it cannot stay NULL.
+-- Legacy undated rows are marked with the earliest TIMESTAMP value.
+UPDATE sensor_readings SET recorded_at = FROM_UNIXTIME(1) WHERE recorded_at IS NULL;
+
+ALTER TABLE sensor_readings
+  MODIFY recorded_at TIMESTAMP NOT NULL,
+  DROP PRIMARY KEY,
+  ADD PRIMARY KEY (id, recorded_at);
+
+-- History up to today stays in p_start; everything from today on goes to
+-- p_future until the PartitionManager splits it (only today's rows move then).
+SET @today = UNIX_TIMESTAMP(CURDATE());
+SET @ddl = CONCAT('ALTER TABLE sensor_readings PARTITION BY RANGE (UNIX_TIMESTAMP(recorded_at)) (',
+                  'PARTITION p_start VALUES LESS THAN (', @today, '), ',
+                  'PARTITION p_future VALUES LESS THAN MAXVALUE)');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
@@ -0,0 +1,60 @@
+-- Rollup tables for /api/readings/series (count, min, max, sum and last value
+-- of every measurement per sensor and 1-minute, 1-hour or 1-day bucket).
+-- Run once against an existing database BEFORE deploying the server version
+-- that maintains them: every sensor_readings batch also upserts its buckets,
+-- and fails while the tables are missing.
+USE UBICOMP;
+
+CREATE TABLE IF NOT EXISTS sensor_rollup_1m (
+  sensor_id VARCHAR(64) NOT NULL,
+  parameter VARCHAR(64) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  cnt BIGINT UNSIGNED NOT NULL,
+  min_value DOUBLE NOT NULL,
+  max_value DOUBLE NOT NULL,
+  sum_value DOUBLE NOT NULL,
+  last_value DOUBLE NOT NULL,
+  last_at TIMESTAMP NOT NULL,
+  PRIMARY KEY (sensor_id, parameter, bucket_start)
+);
+
+CREATE TABLE IF NOT EXISTS sensor_rollup_1h LIKE sensor_rollup_1m;
+CREATE TABLE IF NOT EXISTS sensor_rollup_1d LIKE sensor_rollup_1m;
+
+-- Backfill from the readings already stored, one measurement column at a time.
+-- Day buckets use the session time zone, which must match the server's.
+DELIMITER //
+CREATE PROCEDURE backfill_rollups(IN target VARCHAR(64), IN bucket_expr VARCHAR(255))
+BEGIN
+  DECLARE done INT DEFAULT 0;
+  DECLARE col VARCHAR(64);
+  DECLARE cols CURSOR FOR
+    SELECT COLUMN_NAME FROM information_schema.COLUMNS
+     WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'sensor_readings'
+       AND DATA_TYPE IN ('double', 'int')
+       AND COLUMN_NAME NOT IN ('latitude', 'longitude', 'altitude');
+  DECLARE CONTINUE HANDLER FOR NOT FOUND SET done = 1;
+
+  OPEN cols;
+  next_col: LOOP
+    FETCH cols INTO col;
+    IF done THEN LEAVE next_col; END IF;
+    SET @sql = CONCAT(
+      'INSERT INTO ', target, ' (sensor_id, parameter, bucket_start, cnt, min_value, max_value, sum_value, last_value, last_at)',
+      ' SELECT sensor_id, ''', col, ''', ', bucket_expr, ' AS b, COUNT(*), MIN(', col, '), MAX(', col, '), SUM(', col, '),',
+      ' SUBSTRING_INDEX(GROUP_CONCAT(', col, ' ORDER BY recorded_at DESC), '','', 1) + 0, MAX(recorded_at)',
+      ' FROM sensor_readings WHERE ', col, ' IS NOT NULL GROUP BY sensor_id, b',
+      ' ON DUPLICATE KEY UPDATE cnt = VALUES(cnt), min_value = VALUES(min_value), max_value = VALUES(max_value),',
+      ' sum_value = VALUES(sum_value), last_value = VALUES(last_value), last_at = VALUES(last_at)');
+    PREPARE stmt FROM @sql;
+    EXECUTE stmt;
+    DEALLOCATE PREPARE stmt;
+  END LOOP;
+  CLOSE cols;
+END //
+DELIMITER ;
+
+CALL backfill_rollups('sensor_rollup_1m', 'FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(recorded_at) / 60) * 60)');
+CALL backfill_rollups('sensor_rollup_1h', 'FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(recorded_at) / 3600) * 3600)');
+CALL backfill_rollups('sensor_rollup_1d', 'TIMESTAMP(DATE(recorded_at))');
+DROP PROCEDURE backfill_rollups;
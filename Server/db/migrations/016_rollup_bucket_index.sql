@@ -0,0 +1,9 @@
+-- Index the rollup tables by bucket_start. RetentionEngine purges expired
+-- buckets with DELETE ... WHERE bucket_start < ? LIMIT n; the primary key
+-- starts with sensor_id, so without this index every chunk scans the table
+-- from the start and re-reads the rows it kept the time before.
+USE UBICOMP;
+
+ALTER TABLE sensor_rollup_1m ADD INDEX IF NOT EXISTS idx_bucket_start (bucket_start);
+ALTER TABLE sensor_rollup_1h ADD INDEX IF NOT EXISTS idx_bucket_start (bucket_start);
+ALTER TABLE sensor_rollup_1d ADD INDEX IF NOT EXISTS idx_bucket_start (bucket_start);
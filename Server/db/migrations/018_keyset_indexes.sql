@@ -0,0 +1,14 @@
+-- Indexes for keyset pagination of /api/readings/query and /sensor/readings.
+-- Pages are ordered by (recorded_at, id); InnoDB appends the primary key
+-- (id, recorded_at) to every secondary index, so each of these is a complete
+-- (filter, recorded_at, id) index and a page is one short range scan however
+-- deep it is. Pages sorted by other columns still avoid OFFSET but sort the
+-- rows matching their filter.
+USE UBICOMP;
+
+ALTER TABLE sensor_readings
+  ADD INDEX idx_recorded_at (recorded_at),
+  ADD INDEX idx_street_time (street_id, recorded_at);
+
+-- 025 moves street_id out of the reading rows; idx_street_time becomes
+-- (street_key, recorded_at) there and street_id = ? filters still use it.
@@ -0,0 +1,98 @@
+-- Move station metadata out of every reading row into the stations catalog.
+-- sensor_readings becomes sensor_readings_base, whose rows reference their
+-- station by station_key (and their street by street_key, which keeps
+-- idx_street_time from 018 for street-filtered pages), and a sensor_readings
+-- view with the former columns takes its place for every query.
+-- Rebuilds the readings table once (copies every row): stop Tomcat, run this
+-- in a maintenance window, then deploy the server version that writes
+-- sensor_readings_base.
+USE UBICOMP;
+
+CREATE TABLE IF NOT EXISTS stations (
+  station_key INT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  sensor_id VARCHAR(64) NOT NULL,
+  sensor_type VARCHAR(64) NOT NULL,
+  street_id VARCHAR(64) NOT NULL,
+  latitude DOUBLE NULL,
+  longitude DOUBLE NULL,
+  altitude DOUBLE NULL,
+  district VARCHAR(128) NULL,
+  neighborhood VARCHAR(128) NULL,
+  first_seen TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  -- text fields are length-prefixed so that no value (a '|' in a street name) can
+  -- make two different combinations hash the same string
+  meta_hash BINARY(16) AS (UNHEX(MD5(CONCAT_WS('|',
+    CONCAT(CHAR_LENGTH(sensor_id), ':', sensor_id),
+    CONCAT(CHAR_LENGTH(sensor_type), ':', sensor_type),
+    CONCAT(CHAR_LENGTH(street_id), ':', street_id),
+    IFNULL(latitude, 'N'), IFNULL(longitude, 'N'), IFNULL(altitude, 'N'),
+    IFNULL(CONCAT(CHAR_LENGTH(district), ':', district), 'N'),
+    IFNULL(CONCAT(CHAR_LENGTH(neighborhood), ':', neighborhood), 'N'))))) PERSISTENT,
+  UNIQUE KEY uq_station_meta (meta_hash),
+  INDEX idx_station_sensor (sensor_id),
+  INDEX idx_station_street (street_id),
+  INDEX idx_station_location (latitude, longitude)
+);
+
+CREATE TABLE IF NOT EXISTS streets (
+  street_key INT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  street_id VARCHAR(64) NOT NULL,
+  UNIQUE KEY uq_street_id (street_id)
+);
+
+-- One catalog row per metadata combination already stored
+INSERT IGNORE INTO stations (sensor_id, sensor_type, street_id, latitude, longitude, altitude, district, neighborhood, first_seen)
+SELECT sensor_id, sensor_type, street_id, latitude, longitude, altitude, district, neighborhood, MIN(recorded_at)
+  FROM sensor_readings
+ GROUP BY sensor_id, sensor_type, street_id, latitude, longitude, altitude, district, neighborhood;
+
+INSERT IGNORE INTO streets (street_id)
+SELECT DISTINCT street_id FROM stations;
+
+RENAME TABLE sensor_readings TO sensor_readings_base;
+
+ALTER TABLE sensor_readings_base
+  ADD COLUMN station_key INT UNSIGNED NULL AFTER sensor_id,
+  ADD COLUMN street_key INT UNSIGNED NULL AFTER station_key;
+
+UPDATE sensor_readings_base r
+  JOIN stations s
+    ON s.sensor_id = r.sensor_id
+   AND s.sensor_type <=> r.sensor_type
+   AND s.street_id <=> r.street_id
+   AND s.latitude <=> r.latitude
+   AND s.longitude <=> r.longitude
+   AND s.altitude <=> r.altitude
+   AND s.district <=> r.district
+   AND s.neighborhood <=> r.neighborhood
+  JOIN streets t ON t.street_id = s.street_id
+   SET r.station_key = s.station_key, r.street_key = t.street_key;
+
+-- Location lookups go through the catalog's indexes now; idx_street_time
+-- is rebuilt on street_key
+ALTER TABLE sensor_readings_base
+  MODIFY station_key INT UNSIGNED NOT NULL,
+  MODIFY street_key INT UNSIGNED NOT NULL,
+  DROP INDEX IF EXISTS idx_street_time,
+  DROP INDEX IF EXISTS idx_lat_long,
+  DROP COLUMN sensor_type,
+  DROP COLUMN street_id,
+  DROP COLUMN latitude,
+  DROP COLUMN longitude,
+  DROP COLUMN altitude,
+  DROP COLUMN district,
+  DROP COLUMN neighborhood,
+  ADD INDEX idx_station_time (station_key, recorded_at),
+  ADD INDEX idx_street_time (street_key, recorded_at);
+
+-- street_id comes from `streets`, so a street_id = ? filter pages along idx_street_time
+CREATE OR REPLACE ALGORITHM = MERGE VIEW sensor_readings AS
+SELECT r.id, r.sensor_id, s.sensor_type, t.street_id, r.recorded_at,
+       s.latitude, s.longitude, s.altitude, s.district, s.neighborhood,
+       r.temp, r.humid, r.aqi, r.lux, r.sound_db, r.atmhpa, r.uv_index,
+       r.bsec_status, r.iaq, r.static_iaq, r.co2_eq, r.breath_voc_eq, r.raw_temperature, r.raw_humidity,
+       r.pressure_hpa, r.gas_resistance_ohm, r.gas_percentage, r.stabilization_status, r.run_in_status,
+       r.sensor_heat_comp_temp, r.sensor_heat_comp_hum
+  FROM sensor_readings_base r
+  JOIN stations s ON s.station_key = r.station_key
+  JOIN streets t ON t.street_key = r.street_key;
@@ -0,0 +1,261 @@
+package Database;
+
+import Logic.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time-bucket aggregates of one numeric column of sensor_readings, optionally
+ * per sensor_id, district or neighborhood. Buckets are bucketMs long and
+ * counted from local midnight of the day of start.
+ *
+ * count/min/max/avg are computed by MariaDB with a GROUP BY over the
+ * recorded_at range. Percentiles need the values themselves, so when they are
+ * asked for the values are streamed once through the server instead and each
+ * group keeps a uniform reservoir sample of RESERVOIR values: percentiles are
+ * exact up to that many values per group and approximate beyond it. The
+ * samples of one request are bounded by SAMPLE_BUDGET values, which limits the
+ * number of groups a percentile request may produce.
+ *
+ * Both run on the QUERY pool under its usual statement timeout.
+ *
+ * Tunables (system properties): meteu.aggregate.reservoir, meteu.aggregate.max.groups,
+ * meteu.aggregate.sample.budget.
+ */
+public class AggregateDAO {
+
+    private static final int RESERVOIR = Math.max(16, Integer.getInteger("meteu.aggregate.reservoir", 1024));
+    private static final int MAX_GROUPS = Integer.getInteger("meteu.aggregate.max.groups", 10000);
+    // sampled values (8 bytes each) one percentile request may hold: 2M = 16 MB
+    private static final int SAMPLE_BUDGET = Integer.getInteger("meteu.aggregate.sample.budget", 2_000_000);
+    private static final int MAX_SAMPLED_GROUPS = Math.max(1, Math.min(MAX_GROUPS, SAMPLE_BUDGET / RESERVOIR));
+
+    /** Columns the aggregates can be split by. */
+    public static final List<String> GROUP_COLUMNS = Arrays.asList("sensor_id", "district", "neighborhood");
+
+    /** What to aggregate; column and groupBy must be validated by the caller. */
+    public static final class Request {
+        String column;
+        String groupBy;
+        long start;
+        long end;
+        long bucketMs;
+        String sensorId;
+        String district;
+        String neighborhood;
+        double[] percentiles = new double[0];
+
+        public Request(String column, long start, long end, long bucketMs) {
+            this.column = column;
+            this.start = start;
+            this.end = end;
+            this.bucketMs = bucketMs;
+        }
+
+        public void setGroupBy(String groupBy) { this.groupBy = groupBy; }
+        public void setSensorId(String sensorId) { this.sensorId = sensorId; }
+        public void setDistrict(String district) { this.district = district; }
+        public void setNeighborhood(String neighborhood) { this.neighborhood = neighborhood; }
+        /** Percentiles to compute, each in [0, 100]. */
+        public void setPercentiles(double[] percentiles) { this.percentiles = percentiles; }
+
+        /** Start of the first bucket: local midnight of the day of start. */
+        long origin() {
+            ZoneId zone = ZoneId.systemDefault();
+            return LocalDate.ofInstant(Instant.ofEpochMilli(start), zone).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+
+    /** One (bucket, group) of the result. */
+    private static final class Group {
+        final long bucket;
+        final String key;
+        long count;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum;
+        double[] sample;
+        int sampled;
+
+        Group(long bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+
+        void add(double v) {
+            count++;
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sum += v;
+            if (sampled < RESERVOIR) {
+                if (sample == null || sampled == sample.length) {
+                    sample = Arrays.copyOf(sample == null ? new double[0] : sample, Math.min(RESERVOIR, Math.max(16, sampled * 2)));
+                }
+                sample[sampled++] = v;
+            } else {
+                // Algorithm R: keep each of the count values with equal probability
+                long j = ThreadLocalRandom.current().nextLong(count);
+                if (j < RESERVOIR) sample[(int) j] = v;
+            }
+        }
+    }
+
+    /** Buckets oldest first (then by group), as maps ready for Gson. */
+    public static List<Map<String, Object>> aggregate(Request r) {
+        ConectionDDBB conector = new ConectionDDBB();
+        Connection con = null;
+        try {
+            con = conector.obtainConnection(true);
+            return r.percentiles.length == 0 ? grouped(con, r) : sampled(con, r);
+        } catch (DatabaseUnavailableException | IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("aggregate query failed", e);
+            Log.log.error("Error aggregating {}: {}", r.column, e);
+            return new ArrayList<>();
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    // count/min/max/avg pushed down to MariaDB
+    private static List<Map<String, Object>> grouped(Connection con, Request r) throws Exception {
+        String bucket = "FLOOR((UNIX_TIMESTAMP(recorded_at) * 1000 - ?) / ?)";
+        String group = r.groupBy == null ? "NULL" : r.groupBy;
+        StringBuilder sql = new StringBuilder("SELECT ").append(bucket).append(" AS b, ").append(group).append(" AS g, COUNT(")
+                .append(r.column).append("), MIN(").append(r.column).append("), MAX(").append(r.column).append("), AVG(")
+                .append(r.column).append(") FROM sensor_readings");
+        List<Object> args = new ArrayList<>();
+        args.add(r.origin());
+        args.add(r.bucketMs);
+        where(sql, args, r);
+        sql.append(" GROUP BY b, g ORDER BY b, g LIMIT ?");
+        args.add(MAX_GROUPS + 1);
+
+        PreparedStatement ps = con.prepareStatement(sql.toString());
+        bind(ps, args);
+        ResultSet rs = ps.executeQuery();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        while (rs.next()) {
+            if (rows.size() == MAX_GROUPS) throw new IllegalArgumentException("Too many groups, use a larger interval");
+            Map<String, Object> m = bucket(r, rs.getLong(1), rs.getString(2));
+            m.put("count", rs.getLong(3));
+            m.put("min", rs.getDouble(4));
+            m.put("max", rs.getDouble(5));
+            m.put("avg", rs.getDouble(6));
+            rows.add(m);
+        }
+        return rows;
+    }
+
+    // one streamed pass over the values, reservoir-sampled per group
+    private static List<Map<String, Object>> sampled(Connection con, Request r) throws Exception {
+        StringBuilder sql = new StringBuilder("SELECT recorded_at, ").append(r.groupBy == null ? "NULL" : r.groupBy)
+                .append(", ").append(r.column).append(" FROM sensor_readings");
+        List<Object> args = new ArrayList<>();
+        where(sql, args, r);
+
+        long origin = r.origin();
+        Map<String, Group> groups = new HashMap<>();
+        PreparedStatement ps = con.prepareStatement(sql.toString());
+        // streamed, but unlike exports within the pool's statement timeout
+        ps.setFetchSize(SensorReadingDAO.STREAM_FETCH_SIZE);
+        bind(ps, args);
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+            long b = Math.floorDiv(rs.getTimestamp(1).getTime() - origin, r.bucketMs);
+            String g = rs.getString(2);
+            Group grp = groups.get(b + "|" + g);
+            if (grp == null) {
+                if (groups.size() >= MAX_SAMPLED_GROUPS) {
+                    ps.cancel();
+                    throw new IllegalArgumentException("Too many groups, use a larger interval");
+                }
+                grp = new Group(b, g);
+                groups.put(b + "|" + g, grp);
+            }
+            grp.add(rs.getDouble(3));
+        }
+
+        TreeMap<Long, List<Group>> byBucket = new TreeMap<>();
+        for (Group grp : groups.values()) byBucket.computeIfAbsent(grp.bucket, k -> new ArrayList<>()).add(grp);
+        List<Map<String, Object>> rows = new ArrayList<>(groups.size());
+        for (List<Group> list : byBucket.values()) {
+            list.sort((a, b) -> a.key == null ? (b.key == null ? 0 : -1) : b.key == null ? 1 : a.key.compareTo(b.key));
+            for (Group grp : list) {
+                Map<String, Object> m = bucket(r, grp.bucket, grp.key);
+                m.put("count", grp.count);
+                m.put("min", grp.min);
+                m.put("max", grp.max);
+                m.put("avg", grp.sum / grp.count);
+                double[] sorted = Arrays.copyOf(grp.sample, grp.sampled);
+                Arrays.sort(sorted);
+                for (double p : r.percentiles) m.put(percentileLabel(p), percentile(sorted, p));
+                rows.add(m);
+            }
+        }
+        return rows;
+    }
+
+    private static void where(StringBuilder sql, List<Object> args, Request r) {
+        sql.append(" WHERE recorded_at >= ? AND recorded_at <= ? AND ").append(r.column).append(" IS NOT NULL");
+        args.add(new Timestamp(r.start));
+        args.add(new Timestamp(r.end));
+        if (r.sensorId != null) {
+            sql.append(" AND sensor_id = ?");
+            args.add(r.sensorId);
+        }
+        if (r.district != null) {
+            sql.append(" AND district = ?");
+            args.add(r.district);
+        }
+        if (r.neighborhood != null) {
+            sql.append(" AND neighborhood = ?");
+            args.add(r.neighborhood);
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<Object> args) throws Exception {
+        for (int i = 0; i < args.size(); i++) {
+            Object a = args.get(i);
+            if (a instanceof Timestamp) ps.setTimestamp(i + 1, (Timestamp) a);
+            else ps.setObject(i + 1, a);
+        }
+    }
+
+    private static Map<String, Object> bucket(Request r, long index, String group) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("t", SensorReadingDAO.formatTimestamp(new Timestamp(r.origin() + index * r.bucketMs)));
+        if (r.groupBy != null) m.put(r.groupBy, group);
+        return m;
+    }
+
+    /** Linear interpolation between the closest ranks of a sorted sample. */
+    private static Double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) return null;
+        double rank = p / 100.0 * (sorted.length - 1);
+        int lo = (int) Math.floor(rank);
+        int hi = (int) Math.ceil(rank);
+        return sorted[lo] + (sorted[hi] - sorted[lo]) * (rank - lo);
+    }
+
+    // p50, p99, p99_9
+    private static String percentileLabel(double p) {
+        String s = p == Math.rint(p) ? Long.toString((long) p) : Double.toString(p).replace('.', '_');
+        return "p" + s;
+    }
+}
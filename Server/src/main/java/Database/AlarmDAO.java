@@ -9,7 +9,7 @@ import Logic.Log;
 public class AlarmDAO {
 
     public boolean createAlarm(String sensorId, String streetId, String parameter, Double triggeredValue) {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -21,7 +21,10 @@ public class AlarmDAO {
             ps.setDouble(4, triggeredValue);
             ps.executeUpdate();
             return true;
+        } catch (DatabaseUnavailableException e) {
+            throw e;
         } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("sensor_alarms unavailable", e);
             Log.log.error("Error creating alarm record: {}", e);
             return false;
         } finally {
@@ -30,7 +33,7 @@ public class AlarmDAO {
     }
 
     public boolean resolveAlarm(String sensorId, String parameter, Double resolvedValue) {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -43,7 +46,10 @@ public class AlarmDAO {
             ps.setString(4, parameter);
             int rows = ps.executeUpdate();
             return rows > 0;
+        } catch (DatabaseUnavailableException e) {
+            throw e;
         } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("sensor_alarms unavailable", e);
             Log.log.error("Error resolving alarm record: {}", e);
             return false;
         } finally {
@@ -52,7 +58,7 @@ public class AlarmDAO {
     }
 
     public boolean hasActiveAlarm(String sensorId, String parameter) {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -63,7 +69,11 @@ public class AlarmDAO {
             ps.setString(3, parameter);
             ResultSet rs = ps.executeQuery();
             return rs.next();
+        } catch (DatabaseUnavailableException e) {
+            throw e;
         } catch (Exception e) {
+            // a timed-out alarm query must not be read as "no active alarm"
+            if (conector.failed(e)) throw new DatabaseUnavailableException("sensor_alarms unavailable", e);
             Log.log.error("Error checking active alarm: {}", e);
             return false;
         } finally {
@@ -3,51 +3,180 @@ package Database;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
-import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import Logic.Log;
+import Utils.CircuitBreaker;
+import Utils.StageMetrics;
 
 
+/**
+ * Connection access for every DAO. Each Pool's DataSource is looked up in JNDI
+ * once and cached, so obtaining a connection is just a pool borrow; borrow
+ * counts, wait times and each pool's own utilisation are available through
+ * snapshot(). A conector borrows from the pool it was created for.
+ *
+ * Every pool has a CircuitBreaker: after meteu.db.breaker.failures consecutive
+ * failures (failed borrows, or statement errors reported through failed()) the
+ * pool refuses work for meteu.db.breaker.open.ms with a
+ * DatabaseUnavailableException, then lets one probe through. Statement
+ * timeouts per pool are set in tomcat/context.xml (QueryTimeoutInterceptor).
+ */
 public class ConectionDDBB
 {
-	public Connection obtainConnection(boolean autoCommit) throws NullPointerException
+	/** DataSource and borrow counters of one Pool. */
+	private static final class PoolState
+	{
+		volatile DataSource dataSource;
+		volatile boolean fallback;
+		final AtomicLong borrows = new AtomicLong();
+		final AtomicLong borrowFailures = new AtomicLong();
+		final AtomicLong borrowNanosTotal = new AtomicLong();
+		final AtomicLong borrowNanosMax = new AtomicLong();
+		final AtomicInteger inUse = new AtomicInteger();
+		final CircuitBreaker breaker;
+
+		PoolState(Pool pool)
+		{
+			breaker = new CircuitBreaker(pool.name(),
+					Integer.getInteger("meteu.db.breaker.failures", 5),
+					Long.getLong("meteu.db.breaker.open.ms", 5000L));
+		}
+	}
+
+	private static final Map<Pool, PoolState> pools = new EnumMap<>(Pool.class);
+
+	static
+	{
+		for (Pool p : Pool.values()) pools.put(p, new PoolState(p));
+	}
+
+	private final Pool pool;
+	private final PoolState state;
+	private boolean failed = false;
+
+	public ConectionDDBB()
+	{
+		this(Pool.QUERY);
+	}
+
+	public ConectionDDBB(Pool pool)
+	{
+		this.pool = pool;
+		this.state = pools.get(pool);
+	}
+
+	private static DataSource dataSource(Pool pool) throws NamingException
+	{
+		PoolState st = pools.get(pool);
+		DataSource ds = st.dataSource;
+		if (ds == null)
+		{
+			synchronized (st)
+			{
+				if (st.dataSource == null)
+				{
+					// Get the connection factory configured in Tomcat
+					Context ctx = new InitialContext();
+					try
+					{
+						st.dataSource = (DataSource) ctx.lookup("java:/comp/env/" + pool.getResourceName());
+						Log.log.info("DataSource {} resolved", pool.getResourceName());
+					} catch (NameNotFoundException ex)
+					{
+						if (pool == Pool.QUERY) throw ex;
+						st.dataSource = dataSource(Pool.QUERY);
+						st.fallback = true;
+						Log.log.warn("DataSource {} not defined, {} connections come from {}", pool.getResourceName(), pool, Pool.QUERY.getResourceName());
+					}
+				}
+				ds = st.dataSource;
+			}
+		}
+		return ds;
+	}
+
+	/**
+	 * Borrow a connection from this conector's pool. Never waits longer than the
+	 * pool's maxWait and never retries on the caller's thread: while the pool's
+	 * circuit breaker is open it fails at once.
+	 *
+	 * @throws DatabaseUnavailableException if the breaker is open or no connection could be obtained
+	 */
+	public Connection obtainConnection(boolean autoCommit) throws DatabaseUnavailableException
     {
+        if (!state.breaker.allowRequest())
+          {
+            throw new DatabaseUnavailableException("Database circuit breaker for " + pool + " is open");
+          }
         Connection con=null;
-        int intentos = 5;
-        for (int i = 0; i < intentos; i++) 
-        {
-        	Log.log.info("Attempt " + i + " to connect to the database");
-        	try
-	          {
-	            Context ctx = new InitialContext();
-	            // Get the connection factory configured in Tomcat
-	            DataSource ds = (DataSource) ctx.lookup("java:/comp/env/jdbc/ubicomp");
-	          
-	            // Obtiene una conexion
-	            con = ds.getConnection();
-				Calendar calendar = Calendar.getInstance();
-				java.sql.Date date = new java.sql.Date(calendar.getTime().getTime());
-	            Log.log.debug("Connection creation. Bd connection identifier: " + con.toString() + " obtained in " + date.toString());
-	            con.setAutoCommit(autoCommit);
-	        	Log.log.info("Conection obtained in the attempt: " + i);
-	            i = intentos;
-	          } catch (NamingException ex)
-	          {
- 	            Log.log.error("Error getting connection while trying: " + i + " = " + ex); 
- 	            // Wait a bit before retrying to allow DB to finish initialization
- 	            try { Thread.sleep(2000); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
-	          } catch (SQLException ex)
-	          {
-	            Log.log.error("ERROR sql getting connection while trying: " + i + " = " + ex.getSQLState() + "\n" + ex.toString());
-	            throw (new NullPointerException("SQL connection is null"));
-	          }
-		}        
-        return con;
+        long t0 = System.nanoTime();
+        try
+          {
+            // Obtiene una conexion
+            con = dataSource(pool).getConnection();
+            long waited = System.nanoTime() - t0;
+            StageMetrics.DB_CONNECT.record(t0);
+            state.borrows.incrementAndGet();
+            state.borrowNanosTotal.addAndGet(waited);
+            if (waited > state.borrowNanosMax.get()) state.borrowNanosMax.accumulateAndGet(waited, Math::max);
+            state.inUse.incrementAndGet();
+            con.setAutoCommit(autoCommit);
+            return con;
+          } catch (NamingException | SQLException ex)
+          {
+            state.borrowFailures.incrementAndGet();
+            state.breaker.onFailure();
+            failed = true;
+            Log.log.error("ERROR getting a {} connection: {}", pool, ex.toString());
+            if (con != null) closeConnection(con);
+            throw new DatabaseUnavailableException("Could not obtain a " + pool + " database connection", ex);
+          }
+    }
+
+    /**
+     * Report an exception thrown while using a connection of this conector. Errors
+     * that point at the database rather than the statement (timeouts, lost
+     * connections) count towards the circuit breaker; returns true for those.
+     */
+    public boolean failed(Exception e)
+    {
+        if (e instanceof SQLException && isUnavailable((SQLException) e))
+          {
+            if (!failed) state.breaker.onFailure();
+            failed = true;
+            return true;
+          }
+        return e instanceof DatabaseUnavailableException;
+    }
+
+    /**
+     * True when the error means the database could not be reached or did not answer in time.
+     * Deadlocks and lock wait timeouts (SQLTransactionRollbackException, SQLState 40xxx) are
+     * conflicts between statements of a database that is up, not an outage.
+     */
+    public static boolean isUnavailable(SQLException e)
+    {
+        String sqlState = e.getSQLState();
+        if (e instanceof SQLTransactionRollbackException || (sqlState != null && sqlState.startsWith("40"))) return false;
+        return e instanceof SQLTransientException
+                || e instanceof SQLRecoverableException
+                || e instanceof SQLNonTransientConnectionException
+                || (sqlState != null && (sqlState.startsWith("08") || sqlState.equals("70100")));
     }
     
     public void closeTransaction(Connection con)
@@ -58,6 +187,7 @@ public class ConectionDDBB
             Log.log.debug("Transaction closed");
           } catch (SQLException ex)
           {
+            failed(ex);
             Log.log.error("Error closing the transaction: " + ex);
           }
     }
@@ -70,6 +200,7 @@ public class ConectionDDBB
             Log.log.debug("Transaction canceled");
           } catch (SQLException ex)
           {
+            failed(ex);
             Log.log.error("ERROR sql when canceling the transation: " + ex.getSQLState() + "\n"  + ex.toString());
           }
     }
@@ -78,23 +209,51 @@ public class ConectionDDBB
     {
         try
           {
-        	Log.log.info("Closing the connection");
             if (null != con)
               {
-				Calendar calendar = Calendar.getInstance();
-				java.sql.Date date = new java.sql.Date(calendar.getTime().getTime());
-	            Log.log.debug("Connection closed. Bd connection identifier: " + con.toString() + " obtained in " + date.toString());
+                state.inUse.decrementAndGet();
+                // a connection used without a reported failure is what closes a half-open breaker
+                if (!failed) state.breaker.onSuccess();
                 con.close();
               }
-
-        	Log.log.info("The connection has been closed");
           } catch (SQLException e)
           {
         	  Log.log.error("ERROR sql closing the connection: " + e);
-        	  e.printStackTrace();
           }
     }
-    
+
+    /** Borrow counters of every pool and, for Tomcat JDBC pools, their current utilisation. */
+    public static Map<String, Object> snapshot()
+    {
+        Map<String, Object> all = new LinkedHashMap<>();
+        for (Map.Entry<Pool, PoolState> e : pools.entrySet())
+          {
+            PoolState st = e.getValue();
+            Map<String, Object> m = new LinkedHashMap<>();
+            long n = st.borrows.get();
+            m.put("resource", e.getKey().getResourceName());
+            m.put("fallback", st.fallback);
+            m.put("borrows", n);
+            m.put("borrow_failures", st.borrowFailures.get());
+            m.put("borrow_wait_avg_ms", n == 0 ? 0.0 : st.borrowNanosTotal.get() / (double) n / 1_000_000.0);
+            m.put("borrow_wait_max_ms", st.borrowNanosMax.get() / 1_000_000.0);
+            m.put("in_use", st.inUse.get());
+            m.put("breaker", st.breaker.snapshot());
+            if (!st.fallback && st.dataSource instanceof org.apache.tomcat.jdbc.pool.DataSource)
+              {
+                org.apache.tomcat.jdbc.pool.DataSource ds = (org.apache.tomcat.jdbc.pool.DataSource) st.dataSource;
+                m.put("pool_active", ds.getActive());
+                m.put("pool_idle", ds.getIdle());
+                m.put("pool_max_active", ds.getMaxActive());
+                m.put("pool_max_wait_ms", ds.getMaxWait());
+                m.put("pool_waiting", ds.getWaitCount());
+                m.put("utilisation", ds.getMaxActive() <= 0 ? 0.0 : ds.getActive() / (double) ds.getMaxActive());
+              }
+            all.put(e.getKey().name().toLowerCase(), m);
+          }
+        return all;
+    }
+
     public static PreparedStatement getStatement(Connection con,String sql)
     {
         PreparedStatement ps = null;
@@ -0,0 +1,20 @@
+package Database;
+
+/**
+ * Thrown when the database cannot be used right now: the pool's circuit breaker
+ * is open, no connection could be obtained, or a statement failed in a way that
+ * points at the server rather than the request (timeout, lost connection).
+ * Callers are expected to degrade quickly, e.g. spool the data or answer 503.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DatabaseUnavailableException(String message) {
+        super(message);
+    }
+
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
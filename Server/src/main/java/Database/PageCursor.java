@@ -0,0 +1,107 @@
+package Database;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Keyset ("seek") pagination over sensor_readings. Pages are ordered by
+ * (sort column, id) and the cursor holds the last row's values of both, so the
+ * next page starts with a WHERE on them instead of an OFFSET: every page
+ * costs an index range scan of one page, however deep it is.
+ *
+ * The token handed to clients is opaque (base64url) and bound to the sort
+ * column and direction it was issued for. NULL sort values come first in
+ * ascending order and last in descending order, as MariaDB sorts them.
+ */
+public final class PageCursor {
+
+    private static final String VERSION = "1";
+
+    private final String column;
+    private final boolean descending;
+    private final Object value;
+    private final long id;
+
+    private PageCursor(String column, boolean descending, Object value, long id) {
+        this.column = column;
+        this.descending = descending;
+        this.value = value;
+        this.id = id;
+    }
+
+    /** Cursor positioned after a row whose sort column holds value (a Timestamp, Number, String or null). */
+    public static PageCursor after(String column, boolean descending, Object value, long id) {
+        if (value instanceof Number) value = ((Number) value).doubleValue();
+        else if (value != null && !(value instanceof Timestamp)) value = value.toString();
+        return new PageCursor(column, descending, value, id);
+    }
+
+    /** The ORDER BY clause matching cursors of this column and direction. */
+    public static String orderBy(String column, boolean descending) {
+        String dir = descending ? " DESC" : " ASC";
+        return " ORDER BY " + column + dir + ", id" + dir;
+    }
+
+    /** Append the seek predicate (starting with " AND") and its arguments. */
+    public void appendSeek(StringBuilder sql, List<Object> args) {
+        String cmp = descending ? "<" : ">";
+        if (value == null) {
+            sql.append(" AND ((").append(column).append(" IS NULL AND id ").append(cmp).append(" ?)");
+            args.add(id);
+            if (!descending) sql.append(" OR ").append(column).append(" IS NOT NULL");
+            sql.append(')');
+            return;
+        }
+        sql.append(" AND (").append(column).append(' ').append(cmp).append(" ? OR (")
+                .append(column).append(" = ? AND id ").append(cmp).append(" ?)");
+        if (descending) sql.append(" OR ").append(column).append(" IS NULL");
+        sql.append(')');
+        args.add(value);
+        args.add(value);
+        args.add(id);
+    }
+
+    public String encode() {
+        String type;
+        String v;
+        if (value == null) { type = "z"; v = ""; }
+        else if (value instanceof Timestamp) { type = "t"; v = Long.toString(((Timestamp) value).getTime()); }
+        else if (value instanceof Double) { type = "n"; v = value.toString(); }
+        else { type = "s"; v = value.toString(); }
+        String raw = VERSION + "|" + column + "|" + (descending ? "d" : "a") + "|" + id + "|" + type + "|" + v;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token issued for the given sort column and direction.
+     * Throws IllegalArgumentException if it is malformed or was issued for another ordering.
+     */
+    public static PageCursor decode(String token, String column, boolean descending) {
+        String[] f;
+        try {
+            f = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", 6);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (f.length != 6 || !VERSION.equals(f[0])) throw new IllegalArgumentException("Invalid cursor");
+        if (!f[1].equals(column) || !f[2].equals(descending ? "d" : "a")) {
+            throw new IllegalArgumentException("Cursor does not match sortBy/order");
+        }
+        try {
+            long id = Long.parseLong(f[3]);
+            Object value;
+            switch (f[4]) {
+                case "z": value = null; break;
+                case "t": value = new Timestamp(Long.parseLong(f[5])); break;
+                case "n": value = Double.parseDouble(f[5]); break;
+                case "s": value = f[5]; break;
+                default: throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new PageCursor(column, descending, value, id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package Database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Logic.Log;
+import Logic.QueryCache;
+
+/**
+ * Keeps the RANGE (UNIX_TIMESTAMP(recorded_at)) partitions of sensor_readings
+ * in shape: partitions for the next AHEAD days or months are created ahead of
+ * time by splitting the MAXVALUE catch-all partition, and partitions entirely
+ * older than the retention period are dropped, which is instant compared with
+ * DELETEs. Time-bounded queries on recorded_at only touch the partitions they
+ * need (partition pruning).
+ *
+ * Runs at startup and then every hour on the RETENTION pool, so the DDL never
+ * holds a connection servlets need. Does nothing if the table is not
+ * partitioned (see db/migrations/014_partition_sensor_readings.sql).
+ *
+ * Tunables (system properties): meteu.partition.granularity (DAY or MONTH),
+ * meteu.partition.ahead, meteu.partition.retention.days (defaults to
+ * meteu.retention.readings.days; 0 keeps everything).
+ */
+public class PartitionManager {
+
+    public enum Granularity { DAY, MONTH }
+
+    private static final String TABLE = SensorReadingDAO.BASE_TABLE;
+    private static final Granularity GRANULARITY = Granularity.valueOf(System.getProperty("meteu.partition.granularity", "DAY").toUpperCase());
+    private static final int AHEAD = Integer.getInteger("meteu.partition.ahead", GRANULARITY == Granularity.DAY ? 7 : 2);
+    private static final int RETENTION_DAYS = Integer.getInteger("meteu.partition.retention.days",
+            Integer.getInteger("meteu.retention.readings.days", 0));
+    private static final long INTERVAL_MS = 60 * 60_000L;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /** One partition as reported by information_schema; upperBound is Long.MAX_VALUE for MAXVALUE. */
+    static final class Partition {
+        final String name;
+        final long upperBound;
+        final long rows;
+
+        Partition(String name, long upperBound, long rows) {
+            this.name = name;
+            this.upperBound = upperBound;
+            this.rows = rows;
+        }
+    }
+
+    private static volatile List<Partition> partitions = new ArrayList<>();
+    private static volatile boolean partitioned = false;
+    private static volatile long lastRun = 0L;
+    private static final AtomicLong created = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "PartitionManager-Scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Run the first maintenance pass now and then every hour. */
+    public static void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (Throwable t) {
+                Log.log.error("Partition maintenance failed: {}", t);
+            }
+        }, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void shutdownScheduler() {
+        try {
+            scheduler.shutdownNow();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down PartitionManager scheduler: {}", e);
+        }
+    }
+
+    /** Create partitions ahead of time and drop expired ones. */
+    public static synchronized void maintain() {
+        ConectionDDBB conector = new ConectionDDBB(Pool.RETENTION);
+        Connection con = null;
+        try {
+            con = conector.obtainConnection(true);
+            List<Partition> current = load(con);
+            if (current == null) {
+                if (partitioned || lastRun == 0L) Log.log.info("{} is not partitioned, partition maintenance disabled", TABLE);
+                partitioned = false;
+                lastRun = System.currentTimeMillis();
+                return;
+            }
+            partitioned = true;
+            if (createAhead(con, current) | dropExpired(con, current)) current = load(con);
+            partitions = current;
+            lastRun = System.currentTimeMillis();
+        } catch (Exception e) {
+            conector.failed(e);
+            Log.log.error("Error maintaining {} partitions: {}", TABLE, e);
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    /** Partitions in order, or null when the table is not partitioned. */
+    private static List<Partition> load(Connection con) throws SQLException {
+        List<Partition> list = new ArrayList<>();
+        try (Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS FROM information_schema.PARTITIONS"
+                     + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + TABLE + "' ORDER BY PARTITION_ORDINAL_POSITION")) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (name == null) return null;
+                String desc = rs.getString(2);
+                long bound = "MAXVALUE".equalsIgnoreCase(desc) ? Long.MAX_VALUE : Long.parseLong(desc.trim());
+                list.add(new Partition(name, bound, rs.getLong(3)));
+            }
+        }
+        return list.isEmpty() ? null : list;
+    }
+
+    private static boolean createAhead(Connection con, List<Partition> current) throws SQLException {
+        Partition last = current.get(current.size() - 1);
+        boolean catchAll = last.upperBound == Long.MAX_VALUE;
+        long highest = Long.MIN_VALUE;
+        for (Partition p : current) {
+            if (p.upperBound != Long.MAX_VALUE) highest = Math.max(highest, p.upperBound);
+        }
+
+        // boundaries are period starts in the server time zone, as epoch seconds;
+        // never back-fill periods before the current one
+        LocalDate period = periodStart(LocalDate.now(ZONE));
+        LocalDate until = advance(period, AHEAD + 1);
+        StringBuilder defs = new StringBuilder();
+        int n = 0;
+        for (LocalDate start = period; start.isBefore(until); start = advance(start, 1)) {
+            long bound = epochSeconds(advance(start, 1));
+            if (bound <= highest) continue;
+            if (defs.length() > 0) defs.append(", ");
+            defs.append("PARTITION ").append(nameFor(start)).append(" VALUES LESS THAN (").append(bound).append(')');
+            n++;
+        }
+        if (n == 0) return false;
+
+        String sql;
+        if (catchAll) {
+            sql = "ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + last.name + " INTO (" + defs
+                    + ", PARTITION " + last.name + " VALUES LESS THAN MAXVALUE)";
+        } else {
+            sql = "ALTER TABLE " + TABLE + " ADD PARTITION (" + defs + ")";
+        }
+        execute(con, sql);
+        created.addAndGet(n);
+        Log.log.info("Created {} {} partitions of {}", n, GRANULARITY, TABLE);
+        return true;
+    }
+
+    private static boolean dropExpired(Connection con, List<Partition> current) throws SQLException {
+        if (RETENTION_DAYS <= 0) return false;
+        long cutoff = epochSeconds(LocalDate.now(ZONE).minusDays(RETENTION_DAYS));
+        // archived rows leave through RetentionEngine; only drop what it has already emptied
+        if (RetentionEngine.archives(TABLE)) cutoff = Math.min(cutoff, RetentionEngine.clearedBefore(TABLE) / 1000L);
+        List<String> expired = new ArrayList<>();
+        // keep at least the catch-all and one ranged partition
+        for (int i = 0; i < current.size() - 2; i++) {
+            Partition p = current.get(i);
+            if (p.upperBound <= cutoff) expired.add(p.name);
+        }
+        if (expired.isEmpty()) return false;
+        execute(con, "ALTER TABLE " + TABLE + " DROP PARTITION " + String.join(", ", expired));
+        dropped.addAndGet(expired.size());
+        QueryCache.deletedBefore(cutoff * 1000L);
+        Log.log.info("Dropped expired partitions of {}: {}", TABLE, expired);
+        return true;
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (Statement st = con.createStatement()) {
+            // DROP PARTITION only touches metadata, but REORGANIZE copies whatever rows the
+            // catch-all already holds (maintenance fell behind) while locking the table,
+            // so it gets longer than the pool's per-statement timeout
+            st.setQueryTimeout(300);
+            st.execute(sql);
+        }
+    }
+
+    private static LocalDate periodStart(LocalDate d) {
+        return GRANULARITY == Granularity.DAY ? d : d.withDayOfMonth(1);
+    }
+
+    private static LocalDate advance(LocalDate d, int periods) {
+        return GRANULARITY == Granularity.DAY ? d.plusDays(periods) : d.plusMonths(periods);
+    }
+
+    private static long epochSeconds(LocalDate d) {
+        return d.atStartOfDay(ZONE).toEpochSecond();
+    }
+
+    private static String nameFor(LocalDate start) {
+        return "p" + start.format(GRANULARITY == Granularity.DAY ? DateTimeFormatter.BASIC_ISO_DATE : DateTimeFormatter.ofPattern("yyyyMM"));
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        List<Partition> list = partitions;
+        m.put("partitioned", partitioned);
+        m.put("granularity", GRANULARITY.name());
+        m.put("ahead", AHEAD);
+        m.put("retention_days", RETENTION_DAYS);
+        m.put("partitions", list.size());
+        long rows = 0L;
+        for (Partition p : list) rows += p.rows;
+        m.put("rows_estimate", rows);
+        if (!list.isEmpty()) {
+            m.put("first", list.get(0).name);
+            long newest = Long.MIN_VALUE;
+            for (Partition p : list) if (p.upperBound != Long.MAX_VALUE) newest = Math.max(newest, p.upperBound);
+            if (newest != Long.MIN_VALUE) m.put("covered_until", Instant.ofEpochSecond(newest).toString());
+        }
+        m.put("created", created.get());
+        m.put("dropped", dropped.get());
+        m.put("last_run", lastRun == 0L ? null : Instant.ofEpochMilli(lastRun).toString());
+        return m;
+    }
+}
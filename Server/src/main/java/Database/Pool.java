@@ -0,0 +1,30 @@
+package Database;
+
+/**
+ * Connection pools (bulkheads) defined in tomcat/context.xml. Ingestion and alarm
+ * handling get their own pools so that heavy HTTP queries cannot take every
+ * connection and stall them, and the other way round. A pool whose resource is
+ * not defined falls back to the QUERY pool.
+ */
+public enum Pool {
+    /** Servlets, users, subscriptions and anything not on the ingest path. */
+    QUERY("jdbc/ubicomp"),
+    /** sensor_readings batch inserts and spool replay. */
+    INGEST("jdbc/ubicomp-ingest"),
+    /** Range lookups, sensor_alarms and alert topic resolution of AlarmManager. */
+    ALARMS("jdbc/ubicomp-alarms"),
+    /** Long-running bulk exports of /admin/export. */
+    EXPORT("jdbc/ubicomp-export"),
+    /** Chunked deletes and archiving of RetentionEngine, and PartitionManager DDL. */
+    RETENTION("jdbc/ubicomp-retention");
+
+    private final String resourceName;
+
+    Pool(String resourceName) {
+        this.resourceName = resourceName;
+    }
+
+    public String getResourceName() {
+        return resourceName;
+    }
+}
@@ -3,8 +3,13 @@ package Database;
 import java.sql.Timestamp;
 
 public class QueryParams {
+    /** Largest page size; with cursors a page costs the same at any depth. */
+    public static final int MAX_LIMIT = 1000;
+
     private Timestamp start;
     private Timestamp end;
+    private String sensorId;
+    private String streetId;
     private String filter;
     private String operator;
     private String value;
@@ -12,6 +17,7 @@ public class QueryParams {
     private String order;
     private int limit = 200;
     private int offset = 0;
+    private String cursor;
 
     public Timestamp getStart() { return start; }
     public void setStart(Timestamp start) { this.start = start; }
@@ -19,6 +25,12 @@ public class QueryParams {
     public Timestamp getEnd() { return end; }
     public void setEnd(Timestamp end) { this.end = end; }
 
+    public String getSensorId() { return sensorId; }
+    public void setSensorId(String sensorId) { this.sensorId = sensorId; }
+
+    public String getStreetId() { return streetId; }
+    public void setStreetId(String streetId) { this.streetId = streetId; }
+
     public String getFilter() { return filter; }
     public void setFilter(String filter) { this.filter = filter; }
 
@@ -39,4 +51,41 @@ public class QueryParams {
 
     public int getOffset() { return offset; }
     public void setOffset(int offset) { this.offset = offset; }
+
+    public String getCursor() { return cursor; }
+    public void setCursor(String cursor) { this.cursor = cursor; }
+
+    /**
+     * A canonical form of these parameters for one page of queryPage(): two
+     * parameter sets with the same key select the same rows in the same order.
+     * Empty strings count as absent and defaults are spelled out.
+     */
+    public String cacheKey() {
+        boolean sorted = sortBy != null && !sortBy.isEmpty();
+        boolean filtered = filter != null && !filter.isEmpty() && value != null;
+        boolean paged = cursor != null && !cursor.isEmpty();
+        int l = limit > 0 ? Math.min(limit, MAX_LIMIT) : 200;
+        String op = operator == null ? "=" : operator.equalsIgnoreCase("like") ? "like" : operator;
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(start == null ? "" : Long.toString(start.getTime())).append('|')
+                .append(end == null ? "" : Long.toString(end.getTime())).append('|');
+        field(sb, sensorId).append('|');
+        field(sb, streetId).append('|');
+        if (filtered) {
+            field(sb, filter).append(' ');
+            field(sb, op).append(' ');
+            field(sb, value);
+        }
+        sb.append('|').append(sorted ? sortBy : "recorded_at")
+                .append(' ').append(!sorted || "DESC".equalsIgnoreCase(order) ? "desc" : "asc")
+                .append('|').append(l)
+                .append('|').append(paged ? "c" + cursor : "o" + Math.max(0, offset));
+        return sb.toString();
+    }
+
+    // request values may contain the separator: length-prefixed, no two of them read the same
+    private static StringBuilder field(StringBuilder sb, String v) {
+        if (v == null || v.isEmpty()) return sb.append('-');
+        return sb.append(v.length()).append(':').append(v);
+    }
 }
@@ -54,7 +54,7 @@ public class RangeDAO {
     }
 
     public synchronized void reloadAllRanges() {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -72,6 +72,7 @@ public class RangeDAO {
             cache.putAll(newMap);
             lastLoad = System.currentTimeMillis();
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error reloading parameter ranges: {}", e);
         } finally {
             conector.closeConnection(con);
@@ -94,6 +95,7 @@ public class RangeDAO {
             lastLoad = System.currentTimeMillis();
             return true;
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error updating range for {}: {}", parameter, e);
             return false;
         } finally {
@@ -0,0 +1,251 @@
+package Database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Logic.Log;
+import Logic.SensorReading;
+import Utils.DataDir;
+import Utils.MappedJournal;
+
+/**
+ * Durable local spool for readings that could not be written to sensor_readings
+ * (database down, or too slow to keep up). Readings are appended to a
+ * memory-mapped MappedJournal under meteu.spool.dir (default work/meteu under
+ * the Tomcat base, see DataDir) and a background replayer
+ * drains it into the database in batches once the database answers again,
+ * backing off while it does not. Spooled rows survive a Tomcat restart.
+ *
+ * Tunables (system properties): meteu.spool.dir, meteu.spool.segment.bytes,
+ * meteu.spool.replay.batch, meteu.spool.replay.ms.
+ */
+public class ReadingSpool {
+
+    private static final int SEGMENT_BYTES = Integer.getInteger("meteu.spool.segment.bytes", 16 * 1024 * 1024);
+    private static final int REPLAY_BATCH = Integer.getInteger("meteu.spool.replay.batch", 500);
+    private static final long REPLAY_MS = Long.getLong("meteu.spool.replay.ms", 1000L);
+    private static final long MAX_BACKOFF_MS = 30_000L;
+    private static final byte FORMAT = 1;
+
+    private static final MappedJournal journal = open();
+    private static final Object encodeLock = new Object();
+    private static final ByteArrayOutputStream encodeBytes = new ByteArrayOutputStream(512);
+    private static final DataOutputStream encodeOut = new DataOutputStream(encodeBytes);
+
+    private static final AtomicLong rowsSpooled = new AtomicLong();
+    private static final AtomicLong rowsLost = new AtomicLong();
+    private static final AtomicLong rowsReplayed = new AtomicLong();
+    private static final AtomicLong rowsRejected = new AtomicLong();
+    private static volatile double replayRowsPerSec = 0.0;
+    private static volatile long backoffMs = 0L;
+    private static volatile long nextAttemptAt = 0L;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ReadingSpool-Replayer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        if (journal != null) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    replay();
+                } catch (Throwable t) {
+                    Log.log.error("Spool replay failed: {}", t);
+                }
+            }, REPLAY_MS, REPLAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static MappedJournal open() {
+        File dir = DataDir.resolve("meteu.spool.dir", null);
+        try {
+            MappedJournal j = new MappedJournal(dir, "readings", SEGMENT_BYTES);
+            if (j.pendingRecords() > 0) Log.log.warn("Reading spool holds {} readings from a previous run, replaying", j.pendingRecords());
+            return j;
+        } catch (IOException e) {
+            Log.log.error("Could not open reading spool in {}, unwritten readings will be lost: {}", dir, e);
+            return null;
+        }
+    }
+
+    /** Load the spool so readings left by a previous run start replaying. */
+    public static void start() {
+        Log.log.info("Reading spool ready ({} pending)", journal == null ? 0 : journal.pendingRecords());
+    }
+
+    /** Persist readings for later replay. Rows that cannot be spooled are counted as lost. */
+    public static void append(List<SensorReading> readings) {
+        if (readings.isEmpty()) return;
+        if (journal == null) {
+            rowsLost.addAndGet(readings.size());
+            Log.log.warn("{} sensor readings lost: no spool available", readings.size());
+            return;
+        }
+        int written = 0;
+        try {
+            synchronized (encodeLock) {
+                for (SensorReading r : readings) {
+                    encodeBytes.reset();
+                    encode(r, encodeOut);
+                    journal.append(encodeBytes.toByteArray(), 0, encodeBytes.size());
+                    written++;
+                }
+            }
+            journal.force();
+        } catch (IOException e) {
+            rowsLost.addAndGet(readings.size() - written);
+            Log.log.error("Could not spool {} sensor readings: {}", readings.size() - written, e);
+        }
+        rowsSpooled.addAndGet(written);
+    }
+
+    private static void replay() throws IOException {
+        if (journal.pendingRecords() == 0 || System.currentTimeMillis() < nextAttemptAt) return;
+        long start = System.nanoTime();
+        long replayed = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            MappedJournal.Batch batch = journal.read(REPLAY_BATCH);
+            if (batch.records.isEmpty()) break;
+            List<SensorReading> rows = new ArrayList<>(batch.records.size());
+            for (byte[] rec : batch.records) {
+                try {
+                    rows.add(decode(rec));
+                } catch (IOException e) {
+                    rowsRejected.incrementAndGet();
+                    Log.log.error("Skipping unreadable spool record: {}", e);
+                }
+            }
+            int decoded = rows.size();
+            int rejected = 0;
+            try {
+                try {
+                    SensorReadingDAO.insertBatch(rows);
+                } catch (SQLException e) {
+                    if (ConectionDDBB.isUnavailable(e)) throw e;
+                    rejected = SensorReadingDAO.insertEach(rows);
+                    rowsRejected.addAndGet(rejected);
+                }
+            } catch (SQLException e) {
+                // rows inserted one by one before the outage are already gone from the list;
+                // spool the rest again so nothing is written twice
+                if (rows.size() < decoded) {
+                    append(rows);
+                    journal.ack(batch);
+                }
+                backoffMs = backoffMs == 0 ? REPLAY_MS : Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+                nextAttemptAt = System.currentTimeMillis() + backoffMs;
+                Log.log.warn("Database unavailable, spool replay paused for {} ms ({} pending)", backoffMs, journal.pendingRecords());
+                break;
+            }
+            journal.ack(batch);
+            replayed += decoded - rejected;
+            rowsReplayed.addAndGet(decoded - rejected);
+            backoffMs = 0L;
+        }
+        if (replayed > 0) {
+            replayRowsPerSec = replayed / ((System.nanoTime() - start) / 1_000_000_000.0);
+            Log.log.info("Replayed {} spooled sensor readings ({} pending)", replayed, journal.pendingRecords());
+        }
+    }
+
+    /** Stop the replayer; pending readings stay on disk for the next start. */
+    public static void shutdown() {
+        try {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            if (journal != null) journal.close();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down ReadingSpool: {}", e);
+        }
+    }
+
+    /** Readings waiting to be replayed. */
+    static long pendingRecords() {
+        return journal == null ? 0L : journal.pendingRecords();
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", journal != null);
+        if (journal != null) {
+            long oldest = journal.oldestAppendMillis();
+            m.put("pending_rows", journal.pendingRecords());
+            m.put("pending_bytes", journal.pendingBytes());
+            m.put("segments", journal.segmentCount());
+            m.put("lag_ms", oldest == 0 ? 0 : System.currentTimeMillis() - oldest);
+        }
+        m.put("rows_spooled", rowsSpooled.get());
+        m.put("rows_replayed", rowsReplayed.get());
+        m.put("rows_rejected", rowsRejected.get());
+        m.put("rows_lost", rowsLost.get());
+        m.put("replay_rows_per_s", replayRowsPerSec);
+        m.put("replay_backoff_ms", backoffMs);
+        return m;
+    }
+
+    // record: format, presence bits, fields in sensor_readings order; absent values are skipped
+    private static void encode(SensorReading r, DataOutputStream out) throws IOException {
+        int present = 0;
+        for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+            if (r.hasValue(i)) present |= 1 << i;
+        }
+        out.writeByte(FORMAT);
+        out.writeInt(present);
+        writeString(out, r.getSensorId());
+        writeString(out, r.getSensorType());
+        writeString(out, r.getStreetId());
+        out.writeLong(r.getRecordedAt());
+        out.writeDouble(r.getLatitude());
+        out.writeDouble(r.getLongitude());
+        out.writeDouble(r.getAltitude());
+        writeString(out, r.getDistrict());
+        writeString(out, r.getNeighborhood());
+        for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+            if ((present & (1 << i)) != 0) out.writeDouble(r.getValue(i));
+        }
+    }
+
+    private static SensorReading decode(byte[] rec) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(rec));
+        if (in.readByte() != FORMAT) throw new IOException("Unknown spool record format");
+        int present = in.readInt();
+        SensorReading r = new SensorReading();
+        r.setSensorId(readString(in));
+        r.setSensorType(readString(in));
+        r.setStreetId(readString(in));
+        r.setRecordedAt(in.readLong());
+        r.setLatitude(in.readDouble());
+        r.setLongitude(in.readDouble());
+        r.setAltitude(in.readDouble());
+        r.setDistrict(readString(in));
+        r.setNeighborhood(readString(in));
+        for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+            if ((present & (1 << i)) != 0) r.setValue(i, in.readDouble());
+        }
+        return r;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
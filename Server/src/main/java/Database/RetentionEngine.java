@@ -0,0 +1,394 @@
+package Database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import Logic.Log;
+import Logic.QueryCache;
+import Utils.DataDir;
+
+/**
+ * Deletes rows older than each table's retention period, in small chunks in
+ * primary-key order so that no statement holds locks for long, and pauses
+ * between chunks so it never competes with ingest: the pause grows with the
+ * time the last chunk took, and the engine yields entirely while the batch
+ * writer is saturated or readings are waiting in the spool.
+ *
+ * With archiving on, each chunk is first appended to a gzip'd CSV file under
+ * meteu.retention.archive.dir and synced to disk before it is deleted. When
+ * sensor_readings is archived, PartitionManager only drops partitions the
+ * engine has already emptied.
+ *
+ * Tunables (system properties): meteu.retention.<policy>.days (0 keeps
+ * everything) and meteu.retention.<policy>.archive for the policies readings,
+ * alarms, rollup_1m and rollup_1h; meteu.retention.chunk,
+ * meteu.retention.pause.ms, meteu.retention.interval.ms,
+ * meteu.retention.archive.dir.
+ */
+public class RetentionEngine {
+
+    private static final int CHUNK = Math.max(1, Integer.getInteger("meteu.retention.chunk", 1000));
+    private static final long PAUSE_MS = Long.getLong("meteu.retention.pause.ms", 200L);
+    private static final long INTERVAL_MS = Long.getLong("meteu.retention.interval.ms", 15 * 60_000L);
+    // sleep this many times the duration of the last chunk, so deletes use at most ~20% of the time
+    private static final int PAUSE_FACTOR = 4;
+    private static final long MAX_YIELD_MS = 10 * 60_000L;
+
+    /** Retention of one table. Tables without a numeric key column are deleted with DELETE ... LIMIT and never archived. */
+    static final class Policy {
+        final String name;
+        final String table;
+        final String timeColumn;
+        final String keyColumn;
+        final String condition;
+        final int days;
+        final boolean archive;
+
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong archived = new AtomicLong();
+        final AtomicLong chunks = new AtomicLong();
+        volatile long cutoff = 0L;
+        volatile long clearedBefore = 0L;
+        volatile long lastRun = 0L;
+        volatile String lastError = null;
+        String source;
+
+        Policy(String name, String table, String timeColumn, String keyColumn, String condition) {
+            this.name = name;
+            this.table = table;
+            this.timeColumn = timeColumn;
+            this.keyColumn = keyColumn;
+            this.condition = condition;
+            this.days = Integer.getInteger("meteu.retention." + name + ".days", 0);
+            this.archive = keyColumn != null && Boolean.getBoolean("meteu.retention." + name + ".archive");
+            this.source = table;
+        }
+
+        /** Read archived rows from a view of the table instead of the table itself. */
+        Policy archiveFrom(String view) {
+            this.source = view;
+            return this;
+        }
+
+        String where() {
+            return timeColumn + " < ?" + (condition == null ? "" : " AND " + condition);
+        }
+    }
+
+    private static final List<Policy> policies = new ArrayList<>();
+
+    static {
+        // readings are archived from the view, with their station's metadata
+        policies.add(new Policy("readings", SensorReadingDAO.BASE_TABLE, "recorded_at", "id", null).archiveFrom("sensor_readings"));
+        // active alarms are kept however old they are
+        policies.add(new Policy("alarms", "sensor_alarms", "triggered_at", "id", "active = 0"));
+        // rollups have no numeric key; idx_bucket_start (db/migrations/016_rollup_bucket_index.sql) serves the deletes
+        policies.add(new Policy("rollup_1m", "sensor_rollup_1m", "bucket_start", null, null));
+        policies.add(new Policy("rollup_1h", "sensor_rollup_1h", "bucket_start", null, null));
+    }
+
+    private static volatile String state = "idle";
+    private static volatile long lastChunkMs = 0L;
+    private static volatile long currentPauseMs = 0L;
+    private static final AtomicLong yields = new AtomicLong();
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Retention-Worker");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /** Run a retention pass a minute after startup and then every INTERVAL_MS. */
+    public static void start() {
+        boolean any = false;
+        for (Policy p : policies) any |= p.days > 0;
+        if (!any) {
+            Log.log.info("No retention policy configured, retention engine disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (Throwable t) {
+                Log.log.error("Retention pass failed: {}", t);
+            } finally {
+                state = "idle";
+            }
+        }, 60_000L, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void shutdownScheduler() {
+        try {
+            scheduler.shutdownNow();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down RetentionEngine scheduler: {}", e);
+        }
+    }
+
+    /** True when the named table is archived before its rows are deleted. */
+    static boolean archives(String table) {
+        for (Policy p : policies) {
+            if (p.table.equals(table) && p.days > 0) return p.archive;
+        }
+        return false;
+    }
+
+    /** Epoch ms before which every expired row of the table has been archived and deleted (0 if none yet). */
+    static long clearedBefore(String table) {
+        for (Policy p : policies) {
+            if (p.table.equals(table)) return p.clearedBefore;
+        }
+        return 0L;
+    }
+
+    private static void run() throws InterruptedException {
+        for (Policy p : policies) {
+            if (p.days <= 0) continue;
+            long cutoff = System.currentTimeMillis() - p.days * 86_400_000L;
+            p.cutoff = cutoff;
+            try {
+                if (purge(p, cutoff)) p.clearedBefore = cutoff;
+                p.lastError = null;
+            } catch (DatabaseUnavailableException e) {
+                p.lastError = e.getMessage();
+                Log.log.warn("Database unavailable, retention pass of {} postponed", p.table);
+                return;
+            } catch (SQLException | IOException e) {
+                p.lastError = e.getMessage();
+                Log.log.error("Error purging {}: {}", p.table, e);
+            } finally {
+                p.lastRun = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /** Delete (and archive) everything before cutoff; false if the pass was cut short. */
+    private static boolean purge(Policy p, long cutoff) throws SQLException, IOException, InterruptedException {
+        Archive archive = null;
+        long total = 0L;
+        try {
+            while (true) {
+                if (!yieldToIngest()) return false;
+                state = "deleting " + p.table;
+                long t0 = System.nanoTime();
+                int n;
+                if (p.archive) {
+                    if (archive == null) archive = new Archive(p.source);
+                    n = archiveChunk(p, cutoff, archive);
+                } else {
+                    n = deleteChunk(p, cutoff);
+                }
+                lastChunkMs = (System.nanoTime() - t0) / 1_000_000L;
+                if (n == 0) break;
+                total += n;
+                p.deleted.addAndGet(n);
+                p.chunks.incrementAndGet();
+                if (n < CHUNK) break;
+
+                currentPauseMs = Math.max(PAUSE_MS, lastChunkMs * PAUSE_FACTOR);
+                state = "throttled";
+                Thread.sleep(currentPauseMs);
+            }
+        } finally {
+            if (archive != null) archive.close();
+            // cached query pages may list deleted readings
+            if (total > 0 && p.table.equals(SensorReadingDAO.BASE_TABLE)) QueryCache.deletedBefore(cutoff);
+        }
+        if (total > 0) Log.log.info("Retention removed {} rows of {} older than {}", total, p.table, Instant.ofEpochMilli(cutoff));
+        return true;
+    }
+
+    /** Wait while ingest needs the database; false if it is still busy after MAX_YIELD_MS. */
+    private static boolean yieldToIngest() throws InterruptedException {
+        long until = System.currentTimeMillis() + MAX_YIELD_MS;
+        while (SensorReadingBatchWriter.isSaturated() || ReadingSpool.pendingRecords() > 0) {
+            if (System.currentTimeMillis() > until) {
+                Log.log.warn("Ingest busy for {} ms, retention pass cut short", MAX_YIELD_MS);
+                return false;
+            }
+            state = "yielding";
+            yields.incrementAndGet();
+            Thread.sleep(PAUSE_MS * PAUSE_FACTOR);
+        }
+        return true;
+    }
+
+    private static int deleteChunk(Policy p, long cutoff) throws SQLException {
+        ConectionDDBB conector = new ConectionDDBB(Pool.RETENTION);
+        Connection con = null;
+        try {
+            con = conector.obtainConnection(true);
+            PreparedStatement ps;
+            if (p.keyColumn == null) {
+                ps = con.prepareStatement("DELETE FROM " + p.table + " WHERE " + p.where() + " LIMIT " + CHUNK);
+                ps.setTimestamp(1, new Timestamp(cutoff));
+                return ps.executeUpdate();
+            }
+            long[] range = keyRange(con, p, cutoff);
+            if (range == null) return 0;
+            return deleteRange(con, p, cutoff, range);
+        } catch (SQLException e) {
+            conector.failed(e);
+            throw e;
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    private static int archiveChunk(Policy p, long cutoff, Archive archive) throws SQLException, IOException {
+        ConectionDDBB conector = new ConectionDDBB(Pool.RETENTION);
+        Connection con = null;
+        try {
+            con = conector.obtainConnection(true);
+            PreparedStatement ps = con.prepareStatement("SELECT * FROM " + p.source + " WHERE " + p.where()
+                    + " ORDER BY " + p.keyColumn + " LIMIT " + CHUNK);
+            ps.setTimestamp(1, new Timestamp(cutoff));
+            ResultSet rs = ps.executeQuery();
+            long[] range = null;
+            int rows = 0;
+            while (rs.next()) {
+                archive.write(rs);
+                long key = rs.getLong(p.keyColumn);
+                if (range == null) range = new long[] { key, key };
+                range[1] = key;
+                rows++;
+            }
+            if (range == null) return 0;
+            // the rows must be on disk before they are gone from the database
+            archive.sync();
+            p.archived.addAndGet(rows);
+            return deleteRange(con, p, cutoff, range);
+        } catch (SQLException e) {
+            conector.failed(e);
+            throw e;
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    // lowest and highest key of the next chunk; new rows always get higher keys, so the
+    // expired rows within that key range are exactly the chunk
+    private static long[] keyRange(Connection con, Policy p, long cutoff) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("SELECT MIN(k), MAX(k) FROM (SELECT " + p.keyColumn + " AS k FROM " + p.table
+                + " WHERE " + p.where() + " ORDER BY " + p.keyColumn + " LIMIT " + CHUNK + ") c");
+        ps.setTimestamp(1, new Timestamp(cutoff));
+        ResultSet rs = ps.executeQuery();
+        if (!rs.next() || rs.getObject(1) == null) return null;
+        return new long[] { rs.getLong(1), rs.getLong(2) };
+    }
+
+    private static int deleteRange(Connection con, Policy p, long cutoff, long[] range) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("DELETE FROM " + p.table + " WHERE " + p.keyColumn + " BETWEEN ? AND ? AND " + p.where());
+        ps.setLong(1, range[0]);
+        ps.setLong(2, range[1]);
+        ps.setTimestamp(3, new Timestamp(cutoff));
+        return ps.executeUpdate();
+    }
+
+    /** One gzip'd CSV file per table and retention pass. */
+    private static final class Archive {
+        private final File file;
+        private final FileOutputStream fileOut;
+        private final GZIPOutputStream gzip;
+        private final Writer out;
+        private boolean header = false;
+
+        Archive(String table) throws IOException {
+            File dir = DataDir.resolve("meteu.retention.archive.dir", "archive");
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create archive directory " + dir);
+            file = new File(dir, table + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv.gz");
+            fileOut = new FileOutputStream(file, true);
+            gzip = new GZIPOutputStream(fileOut, 64 * 1024, true);
+            out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+        }
+
+        void write(ResultSet rs) throws SQLException, IOException {
+            ResultSetMetaData md = rs.getMetaData();
+            int n = md.getColumnCount();
+            if (!header) {
+                for (int i = 1; i <= n; i++) {
+                    if (i > 1) out.write(',');
+                    out.write(md.getColumnLabel(i));
+                }
+                out.write('\n');
+                header = true;
+            }
+            for (int i = 1; i <= n; i++) {
+                if (i > 1) out.write(',');
+                Object v = rs.getObject(i);
+                if (v instanceof Timestamp) out.write(SensorReadingDAO.formatTimestamp((Timestamp) v));
+                else if (v != null) out.write(csv(v.toString()));
+            }
+            out.write('\n');
+        }
+
+        void sync() throws IOException {
+            out.flush();
+            gzip.flush();
+            fileOut.getFD().sync();
+        }
+
+        void close() {
+            try {
+                out.close();
+                Log.log.info("Archived to {}", file);
+            } catch (IOException e) {
+                Log.log.error("Error closing archive {}: {}", file, e);
+            }
+        }
+
+        private static String csv(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("state", state);
+        m.put("chunk", CHUNK);
+        m.put("pause_ms", currentPauseMs);
+        m.put("last_chunk_ms", lastChunkMs);
+        m.put("yields", yields.get());
+        Map<String, Object> tables = new LinkedHashMap<>();
+        for (Policy p : policies) {
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("table", p.table);
+            t.put("days", p.days);
+            t.put("archive", p.archive);
+            t.put("deleted", p.deleted.get());
+            t.put("archived", p.archived.get());
+            t.put("chunks", p.chunks.get());
+            t.put("cutoff", p.cutoff == 0L ? null : Instant.ofEpochMilli(p.cutoff).toString());
+            t.put("last_run", p.lastRun == 0L ? null : Instant.ofEpochMilli(p.lastRun).toString());
+            t.put("last_error", p.lastError);
+            tables.put(p.name, t);
+        }
+        m.put("policies", tables);
+        return m;
+    }
+}
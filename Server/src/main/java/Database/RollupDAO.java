@@ -0,0 +1,238 @@
+package Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import Logic.Log;
+import Logic.SensorReading;
+import Utils.StageMetrics;
+
+/**
+ * Per-sensor, per-parameter rollups (count, min, max, sum, last) at 1-minute,
+ * 1-hour and 1-day buckets, kept in sensor_rollup_1m/1h/1d. They are maintained
+ * incrementally: every sensor_readings batch is pre-aggregated in memory and
+ * upserted in the same transaction, so a flush writes one row per
+ * (sensor, parameter, bucket) instead of one per reading.
+ *
+ * Minute and hour buckets are aligned to the epoch, day buckets to midnight in
+ * the server time zone.
+ */
+public class RollupDAO {
+
+    public enum Resolution {
+        MINUTE("1m", "sensor_rollup_1m", 60_000L),
+        HOUR("1h", "sensor_rollup_1h", 3_600_000L),
+        DAY("1d", "sensor_rollup_1d", 86_400_000L);
+
+        private final String label;
+        private final String table;
+        private final long millis;
+
+        Resolution(String label, String table, long millis) {
+            this.label = label;
+            this.table = table;
+            this.millis = millis;
+        }
+
+        public String getLabel() { return label; }
+        public long getMillis() { return millis; }
+
+        /** Resolution for "1m", "1h" or "1d", or null. */
+        public static Resolution fromLabel(String label) {
+            for (Resolution r : values()) {
+                if (r.label.equalsIgnoreCase(label)) return r;
+            }
+            return null;
+        }
+
+        /** Finest resolution that covers [start, end] in at most maxPoints buckets (DAY if none does). */
+        public static Resolution forBudget(long start, long end, int maxPoints) {
+            long span = Math.max(1L, end - start);
+            for (Resolution r : values()) {
+                if ((span + r.millis - 1) / r.millis <= maxPoints) return r;
+            }
+            return DAY;
+        }
+
+        long bucketOf(long ms) {
+            if (this != DAY) return Math.floorDiv(ms, millis) * millis;
+            // local midnight of that day, with that midnight's offset: days with a DST change
+            // are 23 or 25 hours long but still one bucket, as in 015's TIMESTAMP(DATE(recorded_at))
+            return LocalDate.ofInstant(Instant.ofEpochMilli(ms), ZONE).atStartOfDay(ZONE).toInstant().toEpochMilli();
+        }
+    }
+
+    /** One bucket of a series. */
+    public static final class Point {
+        public final long bucketStart;
+        public final long count;
+        public final double min;
+        public final double max;
+        public final double sum;
+        public final double last;
+
+        Point(long bucketStart, long count, double min, double max, double sum, double last) {
+            this.bucketStart = bucketStart;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.last = last;
+        }
+    }
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // ordered like the primary key (sensor_id, parameter, bucket_start)
+    private static final class Key implements Comparable<Key> {
+        final String sensorId;
+        final int param;
+        final long bucket;
+
+        Key(String sensorId, int param, long bucket) {
+            this.sensorId = sensorId;
+            this.param = param;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return param == k.param && bucket == k.bucket && Objects.equals(sensorId, k.sensorId);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(sensorId) * 31 + param) * 31 + Long.hashCode(bucket);
+        }
+
+        @Override
+        public int compareTo(Key k) {
+            int c = sensorId.compareTo(k.sensorId);
+            if (c == 0) c = SensorReading.MEASUREMENTS[param].compareTo(SensorReading.MEASUREMENTS[k.param]);
+            return c != 0 ? c : Long.compare(bucket, k.bucket);
+        }
+    }
+
+    private static final class Agg {
+        long count;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum;
+        double last;
+        long lastAt = Long.MIN_VALUE;
+
+        void add(double v, long at) {
+            count++;
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sum += v;
+            if (at >= lastAt) {
+                last = v;
+                lastAt = at;
+            }
+        }
+    }
+
+    /**
+     * Fold readings into the rollup tables on the caller's connection (and
+     * transaction). Readings without a sensor id or timestamp are skipped.
+     */
+    public static void upsert(Connection con, List<SensorReading> readings) throws SQLException {
+        long t0 = System.nanoTime();
+        for (Resolution res : Resolution.values()) {
+            // two flushes can run at once and share the current hour and day rows: upserting
+            // in key order makes them lock those rows in the same order instead of deadlocking
+            Map<Key, Agg> aggs = new TreeMap<>();
+            for (SensorReading r : readings) {
+                if (r.getSensorId() == null || !r.hasRecordedAt()) continue;
+                long bucket = res.bucketOf(r.getRecordedAt());
+                for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+                    if (!r.hasValue(i)) continue;
+                    aggs.computeIfAbsent(new Key(r.getSensorId(), i, bucket), k -> new Agg()).add(r.getValue(i), r.getRecordedAt());
+                }
+            }
+            if (aggs.isEmpty()) continue;
+            // last_value is assigned before last_at so it still compares against the stored last_at
+            String sql = "INSERT INTO " + res.table + " (sensor_id, parameter, bucket_start, cnt, min_value, max_value, sum_value, last_value, last_at)"
+                    + " VALUES (?,?,?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE"
+                    + " cnt = cnt + VALUES(cnt),"
+                    + " min_value = LEAST(min_value, VALUES(min_value)),"
+                    + " max_value = GREATEST(max_value, VALUES(max_value)),"
+                    + " sum_value = sum_value + VALUES(sum_value),"
+                    + " last_value = IF(VALUES(last_at) >= last_at, VALUES(last_value), last_value),"
+                    + " last_at = GREATEST(last_at, VALUES(last_at))";
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (Map.Entry<Key, Agg> e : aggs.entrySet()) {
+                    Key k = e.getKey();
+                    Agg a = e.getValue();
+                    ps.setString(1, k.sensorId);
+                    ps.setString(2, SensorReading.MEASUREMENTS[k.param]);
+                    ps.setTimestamp(3, new Timestamp(k.bucket));
+                    ps.setLong(4, a.count);
+                    ps.setDouble(5, a.min);
+                    ps.setDouble(6, a.max);
+                    ps.setDouble(7, a.sum);
+                    ps.setDouble(8, a.last);
+                    ps.setTimestamp(9, new Timestamp(a.lastAt));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        StageMetrics.ROLLUP_UPSERT.record(t0);
+    }
+
+    /** Buckets of one sensor parameter between start and end (epoch ms), oldest first. */
+    public static List<Point> series(String sensorId, String parameter, long start, long end, Resolution res) {
+        ConectionDDBB conector = new ConectionDDBB();
+        Connection con = null;
+        List<Point> points = new ArrayList<>();
+        try {
+            con = conector.obtainConnection(true);
+            PreparedStatement ps = con.prepareStatement("SELECT bucket_start, cnt, min_value, max_value, sum_value, last_value FROM " + res.table
+                    + " WHERE sensor_id = ? AND parameter = ? AND bucket_start >= ? AND bucket_start <= ? ORDER BY bucket_start");
+            ps.setString(1, sensorId);
+            ps.setString(2, parameter);
+            // include the bucket that contains start
+            ps.setTimestamp(3, new Timestamp(res.bucketOf(start)));
+            ps.setTimestamp(4, new Timestamp(end));
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                points.add(new Point(rs.getTimestamp(1).getTime(), rs.getLong(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6)));
+            }
+        } catch (DatabaseUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("rollup query failed", e);
+            Log.log.error("Error querying {} rollups: {}", res.label, e);
+        } finally {
+            conector.closeConnection(con);
+        }
+        return points;
+    }
+
+    public static Map<String, Object> toJson(Point p) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("t", SensorReadingDAO.formatTimestamp(new Timestamp(p.bucketStart)));
+        m.put("count", p.count);
+        m.put("min", p.min);
+        m.put("max", p.max);
+        m.put("avg", p.count == 0 ? null : p.sum / p.count);
+        m.put("last", p.last);
+        return m;
+    }
+}
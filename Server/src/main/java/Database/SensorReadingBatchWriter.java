@@ -0,0 +1,170 @@
+package Database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Logic.Log;
+import Logic.SensorReading;
+
+/**
+ * Collects parsed readings and writes them to sensor_readings in JDBC batches,
+ * one commit per flush instead of one per MQTT message. A batch is flushed when
+ * it reaches BATCH_SIZE rows (on the thread that filled it) or when its oldest
+ * row is FLUSH_MS old (on the background flusher), whichever comes first.
+ * Batches the database cannot take (it is down, or MAX_IN_FLIGHT flushes are
+ * already waiting on it) go to the ReadingSpool and are replayed later; rows
+ * the database rejects are retried one by one so only the bad rows are dropped.
+ *
+ * Tunables (system properties): meteu.batch.size, meteu.batch.flush.ms,
+ * meteu.batch.max.inflight.
+ */
+public class SensorReadingBatchWriter {
+
+    private static final int BATCH_SIZE = Integer.getInteger("meteu.batch.size", 500);
+    private static final long FLUSH_MS = Long.getLong("meteu.batch.flush.ms", 250L);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("meteu.batch.max.inflight", 2);
+
+    private static final Object lock = new Object();
+    private static List<SensorReading> buffer = new ArrayList<>(BATCH_SIZE);
+    private static long oldestAddedAt = 0L;
+
+    private static final AtomicLong flushes = new AtomicLong();
+    private static final AtomicLong rowsWritten = new AtomicLong();
+    private static final AtomicLong rowsFailed = new AtomicLong();
+    private static final AtomicLong rowsSpooled = new AtomicLong();
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicLong flushNanosTotal = new AtomicLong();
+    private static volatile long lastFlushRows = 0L;
+
+    // background flusher for the time-based trigger
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SensorReadingBatchWriter-Flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        long tick = Math.max(10L, FLUSH_MS / 2);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flushIfDue();
+            } catch (Throwable t) {
+                Log.log.error("Scheduled batch flush failed: {}", t);
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /** Queue a reading for the next flush; flushes inline when the batch is full. */
+    public static void add(SensorReading reading) {
+        List<SensorReading> full = null;
+        synchronized (lock) {
+            if (buffer.isEmpty()) oldestAddedAt = System.currentTimeMillis();
+            buffer.add(reading);
+            if (buffer.size() >= BATCH_SIZE) full = takeBuffer();
+        }
+        if (full != null) write(full);
+    }
+
+    private static void flushIfDue() {
+        List<SensorReading> due = null;
+        synchronized (lock) {
+            if (!buffer.isEmpty() && System.currentTimeMillis() - oldestAddedAt >= FLUSH_MS) due = takeBuffer();
+        }
+        if (due != null) write(due);
+    }
+
+    /** Write whatever is buffered right now. */
+    public static void flush() {
+        List<SensorReading> pending;
+        synchronized (lock) {
+            pending = takeBuffer();
+        }
+        write(pending);
+    }
+
+    // caller must hold lock
+    private static List<SensorReading> takeBuffer() {
+        List<SensorReading> taken = buffer;
+        buffer = new ArrayList<>(BATCH_SIZE);
+        return taken;
+    }
+
+    private static void write(List<SensorReading> batch) {
+        if (batch.isEmpty()) return;
+        if (inFlight.incrementAndGet() > MAX_IN_FLIGHT) {
+            // the database is not keeping up: park the batch instead of stalling ingest
+            inFlight.decrementAndGet();
+            spool(batch);
+            return;
+        }
+        long start = System.nanoTime();
+        int size = batch.size();
+        try {
+            try {
+                SensorReadingDAO.insertBatch(batch);
+            } catch (SQLException e) {
+                if (ConectionDDBB.isUnavailable(e)) throw e;
+                int rejected = SensorReadingDAO.insertEach(batch);
+                rowsFailed.addAndGet(rejected);
+                size -= rejected;
+            }
+            rowsWritten.addAndGet(size);
+        } catch (SQLException e) {
+            // insertEach() leaves the rows it did not get to in the batch
+            rowsWritten.addAndGet(size - batch.size());
+            spool(batch);
+        } finally {
+            inFlight.decrementAndGet();
+            flushNanosTotal.addAndGet(System.nanoTime() - start);
+            flushes.incrementAndGet();
+            lastFlushRows = size;
+        }
+    }
+
+    private static void spool(List<SensorReading> batch) {
+        Log.log.warn("Spooling batch of {} sensor readings for later replay", batch.size());
+        rowsSpooled.addAndGet(batch.size());
+        ReadingSpool.append(batch);
+    }
+
+    /** True while every allowed flush is in flight, i.e. the database is the bottleneck. */
+    static boolean isSaturated() {
+        return inFlight.get() >= MAX_IN_FLIGHT;
+    }
+
+    /** Stop the flusher and write the remaining rows. */
+    public static void shutdown() {
+        try {
+            scheduler.shutdownNow();
+            flush();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down SensorReadingBatchWriter: {}", e);
+        }
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long n = flushes.get();
+        synchronized (lock) {
+            m.put("buffered", buffer.size());
+        }
+        m.put("batch_size", BATCH_SIZE);
+        m.put("flush_ms", FLUSH_MS);
+        m.put("flushes", n);
+        m.put("rows_written", rowsWritten.get());
+        m.put("rows_failed", rowsFailed.get());
+        m.put("rows_spooled", rowsSpooled.get());
+        m.put("in_flight", inFlight.get());
+        m.put("last_flush_rows", lastFlushRows);
+        m.put("flush_avg_ms", n == 0 ? 0.0 : flushNanosTotal.get() / (double) n / 1_000_000.0);
+        return m;
+    }
+}
@@ -1,17 +1,25 @@
 package Database;
 
 import Logic.Log;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import java.lang.reflect.Type;
+import Logic.LttbDownsampler;
+import Logic.QueryCache;
+import Logic.SensorReading;
+import Utils.StageMetrics;
+import Utils.TimestampUtil;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,7 +28,6 @@ import java.util.HashSet;
 
 public class SensorReadingDAO {
 
-    private static final Gson gson = new Gson();
     // whitelist of allowed columns for filtering/sorting to avoid SQL injection
     public static final Set<String> ALLOWED_COLUMNS = new HashSet<String>() {{
         add("id");
@@ -56,217 +63,144 @@ public class SensorReadingDAO {
         add("sensor_heat_comp_hum");
     }};
 
+    static final int STREAM_FETCH_SIZE = Integer.getInteger("meteu.stream.fetch.size", 1000);
+    private static final int STREAM_TIMEOUT_S = Integer.getInteger("meteu.stream.timeout.s", 3600);
+
+    /** The reading rows; sensor_readings is a view joining them with their station (see StationCatalog). */
+    public static final String BASE_TABLE = "sensor_readings_base";
+
+    private static final boolean IDEMPOTENT = Boolean.getBoolean("meteu.insert.idempotent");
+    private static final String INSERT_SQL = "INSERT INTO " + BASE_TABLE + " (sensor_id, station_key, street_key, recorded_at, temp, humid, aqi, lux, sound_db, atmhpa, uv_index, bsec_status, iaq, static_iaq, co2_eq, breath_voc_eq, raw_temperature, raw_humidity, pressure_hpa, gas_resistance_ohm, gas_percentage, stabilization_status, run_in_status, sensor_heat_comp_temp, sensor_heat_comp_hum) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)"
+            // with the uq_sensor_time index (db/migrations/009_unique_sensor_time.sql) a repeated
+            // (sensor_id, recorded_at) becomes a no-op instead of a second row
+            + (IDEMPOTENT ? " ON DUPLICATE KEY UPDATE id = id" : "");
+    private static volatile boolean noInfoWarned = false;
+
     /**
-     * Insert sensor reading parsed from topic payload JSON.
-     * Accepts nested structure used by stations: `timestamp`, `location`, `data`, `extra`.
-     * Missing fields are inserted as NULL (no random substitution).
+     * Insert a batch of readings with one multi-row JDBC batch and a single commit,
+     * folding them into the rollup tables in the same transaction. Rolls back and throws if any row fails; ConectionDDBB.isUnavailable() tells
+     * a database outage apart from a row that the database rejected.
      */
-    public static boolean insertFromTopicPayload(String topic, String payload) {
-        ConectionDDBB conector = new ConectionDDBB();
+    public static void insertBatch(List<SensorReading> readings) throws SQLException {
+        if (readings.isEmpty()) return;
+        ConectionDDBB conector = new ConectionDDBB(Pool.INGEST);
         Connection con = null;
         try {
-            Type mapType = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> map = gson.fromJson(payload, mapType);
-
-            con = conector.obtainConnection(false); // start transaction
-
-            String sql = "INSERT INTO sensor_readings (sensor_id, sensor_type, street_id, recorded_at, latitude, longitude, altitude, district, neighborhood, temp, humid, aqi, lux, sound_db, atmhpa, uv_index, bsec_status, iaq, static_iaq, co2_eq, breath_voc_eq, raw_temperature, raw_humidity, pressure_hpa, gas_resistance_ohm, gas_percentage, stabilization_status, run_in_status, sensor_heat_comp_temp, sensor_heat_comp_hum) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-            PreparedStatement ps = con.prepareStatement(sql);
-
-            // top-level fields
-            String sensorId = getString(map, "sensor_id");
-            String sensorType = getString(map, "sensor_type");
-            String streetId = getString(map, "street_id");
-
-            // timestamp may be under "timestamp" or "recorded_at"
-            Timestamp recordedAt = getTimestamp(map, "timestamp");
-            if (recordedAt == null) recordedAt = getTimestamp(map, "recorded_at");
-
-            // location is nested
-            Map<String, Object> location = getMap(map, "location");
-            Double latitude = getDouble(location, "lat");
-            Double longitude = getDouble(location, "long");
-            if (longitude == null) longitude = getDouble(location, "lng");
-            Double altitude = getDouble(location, "alt");
-            String district = getString(location, "district");
-            String neighborhood = getString(location, "neighborhood");
-            // Fallback to top-level flat fields if nested structure not provided
-            if (location == null) {
-                latitude = getDouble(map, "lat");
-                longitude = getDouble(map, "long");
-                if (longitude == null) longitude = getDouble(map, "lng");
-                altitude = getDouble(map, "alt");
-                district = getString(map, "district");
-                neighborhood = getString(map, "neighborhood");
-                // also accept 'latitude'/'longitude' as top-level
-                if (latitude == null) latitude = getDouble(map, "latitude");
-                if (longitude == null) longitude = getDouble(map, "longitude");
-            } else {
-                // also accept top-level as additional fallback
-                if (latitude == null) latitude = getDouble(map, "lat");
-                if (longitude == null) {
-                    longitude = getDouble(map, "long");
-                    if (longitude == null) longitude = getDouble(map, "lng");
-                }
-                if (altitude == null) altitude = getDouble(map, "alt");
-                if (district == null) district = getString(map, "district");
-                if (neighborhood == null) neighborhood = getString(map, "neighborhood");
-            }
-
-            // data nested
-            Map<String, Object> data = getMap(map, "data");
-            Double temp = getDouble(data, "temp");
-            Double humid = getDouble(data, "humid");
-            Integer aqi = getInt(data, "aqi");
-            Double lux = getDouble(data, "lux");
-            Double soundDb = getDouble(data, "sound_db");
-            Double atmhpa = getDouble(data, "atmhpa");
-            Double uvIndex = getDouble(data, "uv_index");
-            // Fallback to top-level flat fields if data map not provided
-            if (data == null) {
-                temp = getDouble(map, "temp");
-                humid = getDouble(map, "humid");
-                aqi = getInt(map, "aqi");
-                lux = getDouble(map, "lux");
-                soundDb = getDouble(map, "sound_db");
-                atmhpa = getDouble(map, "atmhpa");
-                uvIndex = getDouble(map, "uv_index");
-            } else {
-                if (temp == null) temp = getDouble(map, "temp");
-                if (humid == null) humid = getDouble(map, "humid");
-                if (aqi == null) aqi = getInt(map, "aqi");
-                if (lux == null) lux = getDouble(map, "lux");
-                if (soundDb == null) soundDb = getDouble(map, "sound_db");
-                if (atmhpa == null) atmhpa = getDouble(map, "atmhpa");
-                if (uvIndex == null) uvIndex = getDouble(map, "uv_index");
+            con = connect(conector, true);
+            // new catalog rows are committed on their own, before the readings that use them
+            StationCatalog.Keys[] keys = StationCatalog.resolve(con, readings);
+            con.setAutoCommit(false); // start transaction
+            long t0 = System.nanoTime();
+            PreparedStatement ps = con.prepareStatement(INSERT_SQL);
+            for (int i = 0; i < readings.size(); i++) {
+                bindReading(ps, readings.get(i), keys[i]);
+                ps.addBatch();
             }
-
-            // extra nested
-            Map<String, Object> extra = getMap(map, "extra");
-            Integer bsecStatus = getInt(extra, "bsec_status");
-            Double iaq = getDouble(extra, "iaq");
-            Double staticIaq = getDouble(extra, "static_iaq");
-            Double co2Eq = getDouble(extra, "co2_eq");
-            Double breathVocEq = getDouble(extra, "breath_voc_eq");
-            Double rawTemperature = getDouble(extra, "raw_temperature");
-            Double rawHumidity = getDouble(extra, "raw_humidity");
-            Double pressureHpa = getDouble(extra, "pressure_hpa");
-            Double gasResistanceOhm = getDouble(extra, "gas_resistance_ohm");
-            Double gasPercentage = getDouble(extra, "gas_percentage");
-            Double stabilizationStatus = getDouble(extra, "stabilization_status");
-            Double runInStatus = getDouble(extra, "run_in_status");
-            Double sensorHeatCompTemp = getDouble(extra, "sensor_heat_comp_temp");
-            Double sensorHeatCompHum = getDouble(extra, "sensor_heat_comp_hum");
-
-            int idx = 1;
-            ps.setString(idx++, sensorId);
-            ps.setString(idx++, sensorType);
-            ps.setString(idx++, streetId);
-
-            if (recordedAt != null) ps.setTimestamp(idx++, recordedAt); else ps.setNull(idx++, java.sql.Types.TIMESTAMP);
-
-            if (latitude != null) ps.setDouble(idx++, latitude); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (longitude != null) ps.setDouble(idx++, longitude); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (altitude != null) ps.setDouble(idx++, altitude); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (district != null) ps.setString(idx++, district); else ps.setNull(idx++, java.sql.Types.VARCHAR);
-            if (neighborhood != null) ps.setString(idx++, neighborhood); else ps.setNull(idx++, java.sql.Types.VARCHAR);
-
-            if (temp != null) ps.setDouble(idx++, temp); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (humid != null) ps.setDouble(idx++, humid); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (aqi != null) ps.setInt(idx++, aqi); else ps.setNull(idx++, java.sql.Types.INTEGER);
-            if (lux != null) ps.setDouble(idx++, lux); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (soundDb != null) ps.setDouble(idx++, soundDb); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (atmhpa != null) ps.setDouble(idx++, atmhpa); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (uvIndex != null) ps.setDouble(idx++, uvIndex); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-
-            if (bsecStatus != null) ps.setInt(idx++, bsecStatus); else ps.setNull(idx++, java.sql.Types.INTEGER);
-            if (iaq != null) ps.setDouble(idx++, iaq); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (staticIaq != null) ps.setDouble(idx++, staticIaq); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (co2Eq != null) ps.setDouble(idx++, co2Eq); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (breathVocEq != null) ps.setDouble(idx++, breathVocEq); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (rawTemperature != null) ps.setDouble(idx++, rawTemperature); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (rawHumidity != null) ps.setDouble(idx++, rawHumidity); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (pressureHpa != null) ps.setDouble(idx++, pressureHpa); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (gasResistanceOhm != null) ps.setDouble(idx++, gasResistanceOhm); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (gasPercentage != null) ps.setDouble(idx++, gasPercentage); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (stabilizationStatus != null) ps.setDouble(idx++, stabilizationStatus); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (runInStatus != null) ps.setDouble(idx++, runInStatus); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (sensorHeatCompTemp != null) ps.setDouble(idx++, sensorHeatCompTemp); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-            if (sensorHeatCompHum != null) ps.setDouble(idx++, sensorHeatCompHum); else ps.setNull(idx++, java.sql.Types.DOUBLE);
-
-            ps.executeUpdate();
-            conector.closeTransaction(con);
-            return true;
-        } catch (Exception e) {
-            Log.log.error("Error inserting sensor reading: {}", e);
+            int[] counts = ps.executeBatch();
+            StageMetrics.BATCH_INSERT.record(t0);
+            List<SensorReading> stored = inserted(readings, counts);
+            RollupDAO.upsert(con, stored);
+            t0 = System.nanoTime();
+            con.commit();
+            StageMetrics.BATCH_COMMIT.record(t0);
+            QueryCache.committed(stored);
+        } catch (SQLException e) {
+            conector.failed(e);
+            Log.log.error("Error inserting batch of {} sensor readings: {}", readings.size(), e);
             if (con != null) {
                 conector.cancelTransaction(con);
             }
-            return false;
+            throw e;
         } finally {
             conector.closeConnection(con);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private static Map<String, Object> getMap(Map<String, Object> root, String key) {
-        if (root == null) return null;
-        Object o = root.get(key);
-        if (o instanceof Map) return (Map<String, Object>) o;
-        return null;
-    }
-
-    private static String getString(Map<String, Object> m, String key) {
-        if (m == null) return null;
-        Object o = m.get(key);
-        return o == null ? null : o.toString();
+    /**
+     * Insert readings one at a time, used after insertBatch() failed on bad data so
+     * that a single rejected row does not take the rest of its batch with it.
+     * Handled rows (inserted or rejected) are removed from the list; if the
+     * database becomes unavailable or a row hits a lock conflict the exception is
+     * thrown and the rows not yet tried are left in it. Returns the number of
+     * rejected rows.
+     */
+    public static int insertEach(List<SensorReading> readings) throws SQLException {
+        if (readings.isEmpty()) return 0;
+        ConectionDDBB conector = new ConectionDDBB(Pool.INGEST);
+        Connection con = null;
+        int done = 0;
+        int rejected = 0;
+        List<SensorReading> inserted = new ArrayList<>();
+        try {
+            con = connect(conector, true);
+            PreparedStatement ps = con.prepareStatement(INSERT_SQL);
+            for (SensorReading r : readings) {
+                try {
+                    bindReading(ps, r, StationCatalog.resolve(con, Collections.singletonList(r))[0]);
+                    if (ps.executeUpdate() != 0) inserted.add(r);
+                } catch (SQLException e) {
+                    // a lock conflict is no reason to drop the row: the rest is spooled and retried
+                    if (conector.failed(e) || e instanceof SQLTransactionRollbackException) throw e;
+                    rejected++;
+                    Log.log.warn("Sensor reading of {} rejected by the database: {}", r.getSensorId(), e.getMessage());
+                }
+                done++;
+            }
+            return rejected;
+        } finally {
+            if (!inserted.isEmpty() && con != null) {
+                try {
+                    RollupDAO.upsert(con, inserted);
+                } catch (SQLException e) {
+                    // the rows themselves are stored; only their buckets fall behind
+                    conector.failed(e);
+                    Log.log.error("Error updating rollups for {} sensor readings: {}", inserted.size(), e);
+                }
+            }
+            QueryCache.committed(inserted);
+            readings.subList(0, done).clear();
+            conector.closeConnection(con);
+        }
     }
 
-    private static Double getDouble(Map<String, Object> m, String key) {
-        if (m == null) return null;
-        Object o = m.get(key);
-        if (o == null) return null;
-        try {
-            return Double.parseDouble(o.toString());
-        } catch (Exception e) {
-            return null;
+    // with the idempotent insert a duplicate reports 0 affected rows and must not be counted again
+    private static List<SensorReading> inserted(List<SensorReading> readings, int[] counts) {
+        if (counts.length != readings.size()) return readings;
+        List<SensorReading> list = new ArrayList<>(readings.size());
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.SUCCESS_NO_INFO && IDEMPOTENT && !noInfoWarned) {
+                // bulk statements (useBulkStmts) hide duplicates; see the ingest pool in context.xml
+                noInfoWarned = true;
+                Log.log.warn("Batch insert returned no per-row counts: duplicate readings will be counted again in the rollups");
+            }
+            if (counts[i] != 0) list.add(readings.get(i));
         }
+        return list;
     }
 
-    private static Integer getInt(Map<String, Object> m, String key) {
-        if (m == null) return null;
-        Object o = m.get(key);
-        if (o == null) return null;
+    // ingest callers spool on SQLException, so an unavailable database is reported as one
+    private static Connection connect(ConectionDDBB conector, boolean autoCommit) throws SQLException {
         try {
-            // handle floats that represent integers
-            String s = o.toString();
-            if (s.contains(".")) s = s.substring(0, s.indexOf('.'));
-            return Integer.parseInt(s);
-        } catch (Exception e) {
-            return null;
+            return conector.obtainConnection(autoCommit);
+        } catch (DatabaseUnavailableException e) {
+            throw new SQLTransientConnectionException(e.getMessage(), "08001", e);
         }
     }
 
-    private static Timestamp getTimestamp(Map<String, Object> m, String key) {
-        String s = getString(m, key);
-        if (s == null) return null;
-        try {
-            s = s.replace('T', ' ');
-            if (s.endsWith("Z")) s = s.substring(0, s.length()-1);
-            // Trim fractional seconds to avoid parsing issues when present
-            int dot = s.indexOf('.');
-            if (dot > 0) {
-                // keep up to nanoseconds (Timestamp accepts up to 9 digits)
-                String before = s.substring(0, dot);
-                String after = s.substring(dot+1);
-                // strip any non-digit characters from fractional part (timezone remnants)
-                after = after.replaceAll("[^0-9]", "");
-                if (after.length() > 9) after = after.substring(0, 9);
-                if (after.length() > 0) s = before + "." + after; else s = before;
-            }
-            return Timestamp.valueOf(s);
-        } catch (Exception e) {
-            return null;
+    private static void bindReading(PreparedStatement ps, SensorReading r, StationCatalog.Keys keys) throws SQLException {
+        int idx = 1;
+        ps.setString(idx++, r.getSensorId());
+        ps.setLong(idx++, keys.station);
+        ps.setLong(idx++, keys.street);
+
+        // undated readings are stamped on arrival; this only covers rows spooled by older versions
+        ps.setTimestamp(idx++, new Timestamp(r.hasRecordedAt() ? r.getRecordedAt() : System.currentTimeMillis()));
+
+        for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+            boolean isInt = SensorReading.isIntegerColumn(i);
+            if (!r.hasValue(i)) ps.setNull(idx++, isInt ? java.sql.Types.INTEGER : java.sql.Types.DOUBLE);
+            else if (isInt) ps.setInt(idx++, (int) r.getValue(i));
+            else ps.setDouble(idx++, r.getValue(i));
         }
     }
 
@@ -275,40 +209,15 @@ public class SensorReadingDAO {
      * or epoch milliseconds as a number string. Returns null on parse failure.
      */
     public static Timestamp parseTimestampString(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        try {
-            // try epoch millis
-            if (s.matches("^\\d+$")) {
-                long ms = Long.parseLong(s);
-                return new Timestamp(ms);
-            }
-        } catch (Exception ignored) {}
-        try {
-            // fallback to previous tolerant parser
-            s = s.replace('T', ' ');
-            if (s.endsWith("Z")) s = s.substring(0, s.length()-1);
-            int dot = s.indexOf('.');
-            if (dot > 0) {
-                String before = s.substring(0, dot);
-                String after = s.substring(dot+1);
-                after = after.replaceAll("[^0-9]", "");
-                if (after.length() > 9) after = after.substring(0, 9);
-                if (after.length() > 0) s = before + "." + after; else s = before;
-            }
-            return Timestamp.valueOf(s);
-        } catch (Exception e) {
-            return null;
-        }
+        long ms = TimestampUtil.parse(s);
+        return ms == TimestampUtil.NONE ? null : new Timestamp(ms);
     }
 
     /**
      * Format a Timestamp to the project's strict string format: yyyy-MM-ddHH:mm:ss
      */
     public static String formatTimestamp(Timestamp ts) {
-        if (ts == null) return null;
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-ddHH:mm:ss");
-        return fmt.format(ts);
+        return TimestampUtil.format(ts);
     }
 
     /**
@@ -318,98 +227,409 @@ public class SensorReadingDAO {
      */
     public static Timestamp parseParamTimestampStrict(String s) {
         if (s == null) return null;
-        String trimmed = s.trim();
-        // expected: 4-2-2 then 2:2:2 => total length 19 (10 date + 8 time) -> 18? actually 'yyyy-MM-ddHH:mm:ss' length=19
-        if (!trimmed.matches("^\\d{4}-\\d{2}-\\d{2}\\d{2}:\\d{2}:\\d{2}$")) {
-            throw new IllegalArgumentException("Formato de timestamp inválido. Se espera: yyyy-MM-ddHH:mm:ss (ej. 2025-12-0504:02:33)");
-        }
-        String datePart = trimmed.substring(0, 10);
-        String timePart = trimmed.substring(10);
-        String normalized = datePart + " " + timePart;
+        return new Timestamp(TimestampUtil.parseParamStrict(s));
+    }
+
+    /**
+     * Readings recorded since the given time (epoch ms), oldest first, of one
+     * sensor or of all of them when sensorId is null. Used by the in-memory hot
+     * window to warm up and when it is not serving.
+     */
+    public static List<SensorReading> readingsSince(long since, String sensorId) {
+        ConectionDDBB conector = new ConectionDDBB();
+        Connection con = null;
+        List<SensorReading> list = new ArrayList<>();
         try {
-            return Timestamp.valueOf(normalized);
+            con = conector.obtainConnection(true);
+            PreparedStatement ps = con.prepareStatement("SELECT * FROM sensor_readings WHERE recorded_at >= ?"
+                    + (sensorId == null ? "" : " AND sensor_id = ?") + " ORDER BY recorded_at");
+            ps.setTimestamp(1, new Timestamp(since));
+            if (sensorId != null) ps.setString(2, sensorId);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) list.add(toReading(rs));
+        } catch (DatabaseUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            throw new IllegalArgumentException("Formato de timestamp inválido. Se espera: yyyy-MM-ddHH:mm:ss (ej. 2025-12-0504:02:33)");
+            if (conector.failed(e)) throw new DatabaseUnavailableException("recent readings query failed", e);
+            Log.log.error("Error loading recent sensor readings: {}", e);
+        } finally {
+            conector.closeConnection(con);
         }
+        return list;
     }
 
     /**
-     * Flexible query that supports time range, a single column filter with operator,
-     * ordering and pagination. Uses ALLOWED_COLUMNS whitelist for column names.
+     * The newest reading of every sensor, found through idx_sensor_time. Used to
+     * load the station registry.
      */
-    public static List<Map<String, Object>> queryReadings(QueryParams params) {
+    public static List<SensorReading> latestReadings() {
         ConectionDDBB conector = new ConectionDDBB();
         Connection con = null;
-        List<Map<String, Object>> rows = new ArrayList<>();
+        List<SensorReading> list = new ArrayList<>();
         try {
             con = conector.obtainConnection(true);
-            StringBuilder sql = new StringBuilder("SELECT * FROM sensor_readings WHERE 1=1");
-            List<Object> arguments = new ArrayList<>();
+            PreparedStatement ps = con.prepareStatement("SELECT r.* FROM sensor_readings r"
+                    + " JOIN (SELECT sensor_id, MAX(recorded_at) AS last_at FROM " + BASE_TABLE + " GROUP BY sensor_id) l"
+                    + " ON r.sensor_id = l.sensor_id AND r.recorded_at = l.last_at");
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) list.add(toReading(rs));
+        } catch (DatabaseUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("latest readings query failed", e);
+            Log.log.error("Error loading latest sensor readings: {}", e);
+        } finally {
+            conector.closeConnection(con);
+        }
+        return list;
+    }
+
+    private static SensorReading toReading(ResultSet rs) throws SQLException {
+        SensorReading r = new SensorReading();
+        r.setSensorId(rs.getString("sensor_id"));
+        r.setSensorType(rs.getString("sensor_type"));
+        r.setStreetId(rs.getString("street_id"));
+        r.setRecordedAt(rs.getTimestamp("recorded_at").getTime());
+        if (rs.getObject("latitude") != null) r.setLatitude(rs.getDouble("latitude"));
+        if (rs.getObject("longitude") != null) r.setLongitude(rs.getDouble("longitude"));
+        if (rs.getObject("altitude") != null) r.setAltitude(rs.getDouble("altitude"));
+        r.setDistrict(rs.getString("district"));
+        r.setNeighborhood(rs.getString("neighborhood"));
+        for (int i = 0; i < SensorReading.MEASUREMENTS.length; i++) {
+            double v = rs.getDouble(SensorReading.MEASUREMENTS[i]);
+            if (!rs.wasNull()) r.setValue(i, v);
+        }
+        return r;
+    }
 
-            if (params.getStart() != null) {
-                sql.append(" AND recorded_at >= ?");
-                arguments.add(params.getStart());
+    /** SELECT, WHERE and ORDER BY of a readings query, with its arguments. */
+    private static final class Query {
+        final StringBuilder sql;
+        final List<Object> arguments = new ArrayList<>();
+        String sort = "recorded_at";
+        boolean descending = true;
+        PageCursor cursor;
+
+        Query(String select) {
+            sql = new StringBuilder("SELECT ").append(select).append(" FROM sensor_readings WHERE 1=1");
+        }
+    }
+
+    private static Query buildQuery(QueryParams params) {
+        return buildQuery(params, "*", true);
+    }
+
+    private static Query buildQuery(QueryParams params, String select, boolean ordered) {
+        Query q = new Query(select);
+        StringBuilder sql = q.sql;
+        List<Object> arguments = q.arguments;
+        if (params.getSortBy() != null && !params.getSortBy().isEmpty()) {
+            q.sort = params.getSortBy();
+            if (!ALLOWED_COLUMNS.contains(q.sort)) throw new IllegalArgumentException("Invalid sort column");
+            q.descending = "DESC".equalsIgnoreCase(params.getOrder());
+        }
+        q.cursor = params.getCursor() == null || params.getCursor().isEmpty()
+                ? null : PageCursor.decode(params.getCursor(), q.sort, q.descending);
+
+        if (params.getStart() != null) {
+            sql.append(" AND recorded_at >= ?");
+            arguments.add(params.getStart());
+        }
+        if (params.getEnd() != null) {
+            sql.append(" AND recorded_at <= ?");
+            arguments.add(params.getEnd());
+        }
+        if (params.getSensorId() != null && !params.getSensorId().isEmpty()) {
+            sql.append(" AND sensor_id = ?");
+            arguments.add(params.getSensorId());
+        }
+        if (params.getStreetId() != null && !params.getStreetId().isEmpty()) {
+            sql.append(" AND street_id = ?");
+            arguments.add(params.getStreetId());
+        }
+        if (params.getFilter() != null && !params.getFilter().isEmpty() && params.getValue() != null) {
+            String col = params.getFilter();
+            if (!ALLOWED_COLUMNS.contains(col)) throw new IllegalArgumentException("Invalid filter column");
+            String op = params.getOperator();
+            if (op == null) op = "=";
+            // only allow a small set of operators
+            switch (op) {
+                case "=":
+                case "!=":
+                case ">":
+                case ">=":
+                case "<":
+                case "<=":
+                    sql.append(" AND ").append(col).append(" ").append(op).append(" ?");
+                    arguments.add(params.getValue());
+                    break;
+                case "like":
+                case "LIKE":
+                    sql.append(" AND ").append(col).append(" LIKE ?");
+                    String v = params.getValue();
+                    if (!v.contains("%")) v = "%" + v + "%";
+                    arguments.add(v);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported operator");
             }
-            if (params.getEnd() != null) {
-                sql.append(" AND recorded_at <= ?");
-                arguments.add(params.getEnd());
+        }
+        if (q.cursor != null) q.cursor.appendSeek(sql, arguments);
+        if (ordered) sql.append(PageCursor.orderBy(q.sort, q.descending));
+        return q;
+    }
+
+    private static void bind(PreparedStatement ps, List<Object> arguments) throws SQLException {
+        int idx = 1;
+        for (Object a : arguments) {
+            if (a instanceof Timestamp) ps.setTimestamp(idx++, (Timestamp) a);
+            else ps.setObject(idx++, a);
+        }
+    }
+
+    /**
+     * Make a statement stream its result set: the driver fetches STREAM_FETCH_SIZE
+     * rows at a time instead of buffering all of them, and the pool's query timeout,
+     * meant for short dashboard queries, is raised to STREAM_TIMEOUT_S.
+     */
+    public static void streamResults(Statement st) throws SQLException {
+        st.setFetchSize(STREAM_FETCH_SIZE);
+        st.setQueryTimeout(STREAM_TIMEOUT_S);
+    }
+
+    /** Write the remaining rows of rs as JSON objects, with the fields queryReadings() returns. */
+    public static long writeRows(ResultSet rs, JsonWriter out) throws SQLException, IOException {
+        long n = 0L;
+        while (rs.next()) {
+            writeRow(rs, out);
+            n++;
+        }
+        return n;
+    }
+
+    private static void writeRow(ResultSet rs, JsonWriter out) throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        out.beginObject();
+        for (int c = 1; c <= md.getColumnCount(); c++) {
+            Object v = rs.getObject(c);
+            out.name(md.getColumnName(c));
+            if (v == null) out.nullValue();
+            else if (v instanceof Timestamp) out.value(formatTimestamp((Timestamp) v));
+            else if (v instanceof Number) out.value((Number) v);
+            else out.value(v.toString());
+        }
+        out.endObject();
+    }
+
+    /** Receives the rows of streamReadings() as they arrive from the driver. */
+    public interface RowWriter {
+        /** Called once the query returns, before the first row. */
+        void begin(ResultSetMetaData md) throws SQLException, IOException;
+
+        void row(ResultSet rs) throws SQLException, IOException;
+
+        /** Called after the last row. */
+        void end() throws IOException;
+    }
+
+    /**
+     * Write every reading matching params (time range, filter, sort and cursor as
+     * in queryPage(); limit 0 means all of them) to out as one JSON array. Rows go
+     * from the driver to the client as they arrive, so memory stays flat whatever
+     * the row count. Throws DatabaseUnavailableException if the database is down
+     * before anything was written; a failure mid-stream surfaces as an IOException.
+     */
+    public static long streamReadings(QueryParams params, JsonWriter out) throws IOException {
+        return streamReadings(params, Pool.QUERY, new RowWriter() {
+            public void begin(ResultSetMetaData md) throws IOException {
+                out.beginArray();
+                // the first byte goes out as soon as the query starts returning rows
+                out.flush();
             }
-            if (params.getFilter() != null && !params.getFilter().isEmpty() && params.getValue() != null) {
-                String col = params.getFilter();
-                if (!ALLOWED_COLUMNS.contains(col)) throw new IllegalArgumentException("Invalid filter column");
-                String op = params.getOperator();
-                if (op == null) op = "=";
-                // only allow a small set of operators
-                switch (op) {
-                    case "=":
-                    case "!=":
-                    case ">":
-                    case ">=":
-                    case "<":
-                    case "<=":
-                        sql.append(" AND ").append(col).append(" ").append(op).append(" ?");
-                        arguments.add(params.getValue());
-                        break;
-                    case "like":
-                    case "LIKE":
-                        sql.append(" AND ").append(col).append(" LIKE ?");
-                        String v = params.getValue();
-                        if (!v.contains("%")) v = "%" + v + "%";
-                        arguments.add(v);
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported operator");
-                }
+
+            public void row(ResultSet rs) throws SQLException, IOException {
+                writeRow(rs, out);
             }
 
-            if (params.getSortBy() != null && !params.getSortBy().isEmpty()) {
-                String sort = params.getSortBy();
-                if (!ALLOWED_COLUMNS.contains(sort)) throw new IllegalArgumentException("Invalid sort column");
-                String ord = "ASC".equalsIgnoreCase(params.getOrder()) ? "ASC" : "DESC".equalsIgnoreCase(params.getOrder()) ? "DESC" : "ASC";
-                sql.append(" ORDER BY ").append(sort).append(" ").append(ord);
-            } else {
-                sql.append(" ORDER BY recorded_at DESC");
+            public void end() throws IOException {
+                out.endArray();
             }
+        });
+    }
 
-            // limit/offset
-            int limit = params.getLimit() > 0 ? params.getLimit() : 200;
-            if (limit > 200) limit = 200;
-            int offset = params.getOffset() >= 0 ? params.getOffset() : 0;
-            sql.append(" LIMIT ? OFFSET ?");
-
-            PreparedStatement ps = con.prepareStatement(sql.toString());
-            int idx = 1;
-            for (Object a : arguments) {
-                if (a instanceof Timestamp) ps.setTimestamp(idx++, (Timestamp) a);
-                else ps.setObject(idx++, a);
+    /** Stream every reading matching params, from a connection of the given pool, to a RowWriter. */
+    public static long streamReadings(QueryParams params, Pool pool, RowWriter writer) throws IOException {
+        Query q = buildQuery(params);
+        if (params.getLimit() > 0) {
+            q.sql.append(" LIMIT ?");
+            q.arguments.add(params.getLimit());
+        }
+        ConectionDDBB conector = new ConectionDDBB(pool);
+        Connection con = null;
+        PreparedStatement ps = null;
+        boolean started = false;
+        try {
+            con = conector.obtainConnection(true);
+            ps = con.prepareStatement(q.sql.toString());
+            streamResults(ps);
+            bind(ps, q.arguments);
+            ResultSet rs = ps.executeQuery();
+            writer.begin(rs.getMetaData());
+            started = true;
+            long n = 0L;
+            while (rs.next()) {
+                writer.row(rs);
+                n++;
             }
-            ps.setInt(idx++, limit);
-            ps.setInt(idx++, offset);
+            writer.end();
+            return n;
+        } catch (SQLException e) {
+            if (conector.failed(e) && !started) throw new DatabaseUnavailableException("sensor_readings stream failed", e);
+            throw new IOException("sensor_readings stream aborted", e);
+        } catch (IOException e) {
+            // the client went away: stop the query rather than drain the rest of the result set
+            cancel(ps);
+            throw e;
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    /**
+     * Reduce the readings of one sensor matching params (time range, sensor,
+     * street and filter; sort, cursor and limit are ignored; the sensor is
+     * required) to at most points values of column,
+     * oldest first, with LttbDownsampler over a streaming cursor, so the series is
+     * never held in memory. Kept rows are written to out as a JSON array of
+     * {id, sensor_id, recorded_at, column} objects. Returns the number of rows read.
+     * DatabaseUnavailableException is thrown before anything is written.
+     */
+    public static long downsampleReadings(QueryParams params, String column, int points, JsonWriter out) throws IOException {
+        int index = SensorReading.indexOf(column);
+        if (index < 0) throw new IllegalArgumentException("Invalid param column");
+        if (params.getSensorId() == null || params.getSensorId().isEmpty()) throw new IllegalArgumentException("sensor_id is required to downsample");
+        params.setSortBy("recorded_at");
+        params.setOrder("asc");
+        params.setCursor(null);
+        Query count = buildQuery(params, "COUNT(*)", false);
+        count.sql.append(" AND ").append(column).append(" IS NOT NULL");
+        Query q = buildQuery(params, "id, sensor_id, recorded_at, " + column, false);
+        q.sql.append(" AND ").append(column).append(" IS NOT NULL").append(PageCursor.orderBy("recorded_at", false)).append(" LIMIT ?");
+
+        ConectionDDBB conector = new ConectionDDBB();
+        Connection con = null;
+        PreparedStatement ps = null;
+        boolean started = false;
+        try {
+            con = conector.obtainConnection(true);
+            ps = con.prepareStatement(count.sql.toString());
+            bind(ps, count.arguments);
+            ResultSet rs = ps.executeQuery();
+            long total = rs.next() ? rs.getLong(1) : 0L;
+            ps.close();
+
+            // rows committed after the count are left out, so the bucket sizes hold
+            q.arguments.add(total);
+            ps = con.prepareStatement(q.sql.toString());
+            streamResults(ps);
+            bind(ps, q.arguments);
+            rs = ps.executeQuery();
+            boolean integer = SensorReading.isIntegerColumn(index);
+            LttbDownsampler lttb = new LttbDownsampler(total, points, (id, sensorId, time, value) -> {
+                out.beginObject();
+                out.name("id").value(id);
+                out.name("sensor_id").value(sensorId);
+                out.name("recorded_at").value(formatTimestamp(new Timestamp(time)));
+                if (integer) out.name(column).value((long) value);
+                else out.name(column).value(value);
+                out.endObject();
+            });
+            out.beginArray();
+            started = true;
+            while (rs.next()) {
+                lttb.add(rs.getLong(1), rs.getString(2), rs.getTimestamp(3).getTime(), rs.getDouble(4));
+            }
+            lttb.finish();
+            out.endArray();
+            return lttb.getSeen();
+        } catch (SQLException e) {
+            if (conector.failed(e) && !started) throw new DatabaseUnavailableException("sensor_readings downsample failed", e);
+            throw new IOException("sensor_readings downsample aborted", e);
+        } catch (IOException e) {
+            cancel(ps);
+            throw e;
+        } finally {
+            conector.closeConnection(con);
+        }
+    }
+
+    /** Cancel a running (streaming) statement; closing it would otherwise read all remaining rows. */
+    public static void cancel(Statement st) {
+        if (st == null) return;
+        try {
+            st.cancel();
+        } catch (SQLException e) {
+            Log.log.warn("Could not cancel statement: {}", e.getMessage());
+        }
+    }
+
+    /** One page of queryPage(): the rows and the cursor of the next page (null on the last page). */
+    public static final class Page {
+        private final List<Map<String, Object>> rows;
+        private final String nextCursor;
+
+        Page(List<Map<String, Object>> rows, String nextCursor) {
+            this.rows = rows;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<Map<String, Object>> getRows() { return rows; }
+        public String getNextCursor() { return nextCursor; }
+    }
+
+    /**
+     * Flexible query that supports time range, a single column filter with operator,
+     * ordering and pagination. Uses ALLOWED_COLUMNS whitelist for column names.
+     */
+    public static List<Map<String, Object>> queryReadings(QueryParams params) {
+        return queryPage(params).getRows();
+    }
+
+    /**
+     * Like queryReadings(), ordered by (sort column, id) so that it can be paged
+     * with the returned cursor (see PageCursor) instead of an offset; an offset
+     * is only applied when no cursor is given.
+     */
+    public static Page queryPage(QueryParams params) {
+        ConectionDDBB conector = new ConectionDDBB();
+        Connection con = null;
+        List<Map<String, Object>> rows = new ArrayList<>();
+        String nextCursor = null;
+        try {
+            Query q = buildQuery(params);
+            con = conector.obtainConnection(true);
+
+            // limit/offset; one extra row tells whether there is a next page
+            int limit = params.getLimit() > 0 ? params.getLimit() : 200;
+            if (limit > QueryParams.MAX_LIMIT) limit = QueryParams.MAX_LIMIT;
+            int offset = q.cursor == null && params.getOffset() >= 0 ? params.getOffset() : 0;
+            q.sql.append(" LIMIT ? OFFSET ?");
+            q.arguments.add(limit + 1);
+            q.arguments.add(offset);
+
+            PreparedStatement ps = con.prepareStatement(q.sql.toString());
+            bind(ps, q.arguments);
 
             ResultSet rs = ps.executeQuery();
             ResultSetMetaData md = rs.getMetaData();
             int cols = md.getColumnCount();
+            Object lastSortValue = null;
+            long lastId = 0L;
             while (rs.next()) {
+                if (rows.size() == limit) {
+                    nextCursor = PageCursor.after(q.sort, q.descending, lastSortValue, lastId).encode();
+                    break;
+                }
                 Map<String, Object> row = new HashMap<>();
                 for (int c = 1; c <= cols; c++) {
                     Object v = rs.getObject(c);
@@ -421,12 +641,17 @@ public class SensorReadingDAO {
                     }
                 }
                 rows.add(row);
+                lastSortValue = rs.getObject(q.sort);
+                lastId = rs.getLong("id");
             }
+        } catch (DatabaseUnavailableException | IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
+            if (conector.failed(e)) throw new DatabaseUnavailableException("sensor_readings query failed", e);
             Log.log.error("Error querying sensor_readings: {}", e);
         } finally {
             conector.closeConnection(con);
         }
-        return rows;
+        return new Page(rows, nextCursor);
     }
 }
@@ -0,0 +1,184 @@
+package Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Logic.SensorReading;
+
+/**
+ * The stations catalog: each distinct combination of a sensor's metadata
+ * (sensor_type, street_id, location, district, neighborhood) is one row of
+ * `stations`, and reading rows in sensor_readings_base only hold its
+ * station_key. A station that moves or is renamed gets a new key; its older
+ * readings keep the one they were recorded with. The sensor_readings view
+ * joins both back into the former row layout.
+ *
+ * Reading rows also carry the street_key of their street (table `streets`),
+ * so that street-filtered pages walk idx_street_time (street_key, recorded_at)
+ * instead of sorting every reading of the street's stations.
+ *
+ * Keys are cached in memory by metadata, so ingest only writes to `stations`
+ * and `streets` when a station reports metadata it has not reported before.
+ *
+ * Tunables (system properties): meteu.stations.cache.max.
+ */
+public class StationCatalog {
+
+    private static final int CACHE_MAX = Integer.getInteger("meteu.stations.cache.max", 100_000);
+
+    // the row's meta_hash makes (sensor_id, metadata) unique even where it is NULL
+    private static final String UPSERT_SQL = "INSERT INTO stations (sensor_id, sensor_type, street_id, latitude, longitude, altitude, district, neighborhood)"
+            + " VALUES (?,?,?,?,?,?,?,?) ON DUPLICATE KEY UPDATE station_key = LAST_INSERT_ID(station_key)";
+    private static final String STREET_UPSERT_SQL = "INSERT INTO streets (street_id) VALUES (?)"
+            + " ON DUPLICATE KEY UPDATE street_key = LAST_INSERT_ID(street_key)";
+
+    /** The keys a reading row refers to. */
+    public static final class Keys {
+        final long station;
+        final long street;
+
+        Keys(long station, long street) {
+            this.station = station;
+            this.street = street;
+        }
+    }
+
+    /** A station's metadata as carried by one reading; the cache key. */
+    private static final class Meta {
+        final String sensorId;
+        final String sensorType;
+        final String streetId;
+        final double latitude;
+        final double longitude;
+        final double altitude;
+        final String district;
+        final String neighborhood;
+        final int hash;
+
+        Meta(SensorReading r) {
+            sensorId = r.getSensorId();
+            sensorType = r.getSensorType();
+            streetId = r.getStreetId();
+            latitude = r.getLatitude();
+            longitude = r.getLongitude();
+            altitude = r.getAltitude();
+            district = r.getDistrict();
+            neighborhood = r.getNeighborhood();
+            hash = Objects.hash(sensorId, sensorType, streetId, latitude, longitude, altitude, district, neighborhood);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Meta)) return false;
+            Meta m = (Meta) o;
+            // Double.compare: NaN (absent) equals NaN
+            return hash == m.hash
+                    && Double.compare(latitude, m.latitude) == 0
+                    && Double.compare(longitude, m.longitude) == 0
+                    && Double.compare(altitude, m.altitude) == 0
+                    && Objects.equals(sensorId, m.sensorId)
+                    && Objects.equals(sensorType, m.sensorType)
+                    && Objects.equals(streetId, m.streetId)
+                    && Objects.equals(district, m.district)
+                    && Objects.equals(neighborhood, m.neighborhood);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final ConcurrentHashMap<Meta, Keys> keys = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Long> streets = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+
+    /**
+     * The station and street keys of every reading, in order, adding catalog
+     * rows for metadata not seen before. con must be in autocommit mode so that
+     * new keys survive a rollback of the readings that introduced them.
+     */
+    public static Keys[] resolve(Connection con, List<SensorReading> readings) throws SQLException {
+        Keys[] result = new Keys[readings.size()];
+        PreparedStatement ps = null;
+        PreparedStatement streetPs = null;
+        try {
+            for (int i = 0; i < result.length; i++) {
+                Meta m = new Meta(readings.get(i));
+                Keys k = keys.get(m);
+                if (k == null) {
+                    Long street = streets.get(m.streetId);
+                    if (street == null) {
+                        if (streetPs == null) streetPs = con.prepareStatement(STREET_UPSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                        street = upsertStreet(streetPs, m.streetId);
+                        if (streets.size() >= CACHE_MAX) streets.clear();
+                        streets.put(m.streetId, street);
+                    }
+                    if (ps == null) ps = con.prepareStatement(UPSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+                    k = new Keys(upsert(ps, m), street);
+                    if (keys.size() >= CACHE_MAX) keys.clear();
+                    keys.put(m, k);
+                } else {
+                    hits.incrementAndGet();
+                }
+                result[i] = k;
+            }
+        } finally {
+            if (ps != null) ps.close();
+            if (streetPs != null) streetPs.close();
+        }
+        return result;
+    }
+
+    private static long upsertStreet(PreparedStatement ps, String streetId) throws SQLException {
+        ps.setString(1, streetId);
+        ps.executeUpdate();
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            if (!rs.next()) throw new SQLException("No street_key returned for " + streetId);
+            written.incrementAndGet();
+            return rs.getLong(1);
+        }
+    }
+
+    private static long upsert(PreparedStatement ps, Meta m) throws SQLException {
+        ps.setString(1, m.sensorId);
+        ps.setString(2, m.sensorType);
+        ps.setString(3, m.streetId);
+        setDouble(ps, 4, m.latitude);
+        setDouble(ps, 5, m.longitude);
+        setDouble(ps, 6, m.altitude);
+        if (m.district != null) ps.setString(7, m.district); else ps.setNull(7, Types.VARCHAR);
+        if (m.neighborhood != null) ps.setString(8, m.neighborhood); else ps.setNull(8, Types.VARCHAR);
+        ps.executeUpdate();
+        // a new row or, through LAST_INSERT_ID(station_key), the existing one
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            if (!rs.next()) throw new SQLException("No station_key returned for " + m.sensorId);
+            written.incrementAndGet();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void setDouble(PreparedStatement ps, int idx, double v) throws SQLException {
+        if (!Double.isNaN(v)) ps.setDouble(idx, v); else ps.setNull(idx, Types.DOUBLE);
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("cached", keys.size());
+        m.put("streets_cached", streets.size());
+        m.put("hits", hits.get());
+        m.put("writes", written.get());
+        return m;
+    }
+}
@@ -29,6 +29,7 @@ public class SubscriptionDAO {
             ps.executeUpdate();
             return true;
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error adding subscription: {}", e);
             return false;
         } finally {
@@ -47,6 +48,7 @@ public class SubscriptionDAO {
             int rows = ps.executeUpdate();
             return rows > 0;
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error removing subscription: {}", e);
             return false;
         } finally {
@@ -66,6 +68,7 @@ public class SubscriptionDAO {
                 results.add(rs.getString("topic"));
             }
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error listing subscriptions: {}", e);
         } finally {
             conector.closeConnection(con);
@@ -74,7 +77,7 @@ public class SubscriptionDAO {
     }
 
     public String getAlertTopicFor(String topic) {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -85,6 +88,7 @@ public class SubscriptionDAO {
                 return rs.getString("alert_topic");
             }
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error getting alert topic: {}", e);
         } finally {
             conector.closeConnection(con);
@@ -93,7 +97,7 @@ public class SubscriptionDAO {
     }
 
     public boolean updateAlertTopic(String topic, String alertTopic) {
-        ConectionDDBB conector = new ConectionDDBB();
+        ConectionDDBB conector = new ConectionDDBB(Pool.ALARMS);
         Connection con = null;
         try {
             con = conector.obtainConnection(true);
@@ -115,6 +119,7 @@ public class SubscriptionDAO {
             }
             return true;
         } catch (Exception e) {
+            conector.failed(e);
             Log.log.error("Error updating alert topic: {}", e);
             return false;
         } finally {
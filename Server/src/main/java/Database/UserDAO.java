@@ -31,6 +31,7 @@ public class UserDAO {
             cdb.closeTransaction(con);
             return true;
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.createUser", e);
             if (con != null) cdb.cancelTransaction(con);
             return false;
@@ -65,6 +66,7 @@ public class UserDAO {
                 }
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.validateCredentials", e);
         } finally {
             cdb.closeConnection(con);
@@ -84,6 +86,7 @@ public class UserDAO {
                 }
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.isDisabled", e);
         } finally {
             cdb.closeConnection(con);
@@ -103,6 +106,7 @@ public class UserDAO {
                 return rows > 0;
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.recordSuccessfulLogin", e);
             if (con != null) cdb.cancelTransaction(con);
         } finally {
@@ -139,6 +143,7 @@ public class UserDAO {
             cdb.closeTransaction(con);
             return failed >= maxFailed;
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.recordFailedLogin", e);
             if (con != null) cdb.cancelTransaction(con);
         } finally {
@@ -159,6 +164,7 @@ public class UserDAO {
                 return rows > 0;
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.deleteUser", e);
             if (con != null) cdb.cancelTransaction(con);
         } finally {
@@ -189,6 +195,7 @@ public class UserDAO {
                 }
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.listUsersJson", e);
         } finally {
             cdb.closeConnection(con);
@@ -208,6 +215,7 @@ public class UserDAO {
                 }
             }
         } catch (Exception e) {
+            cdb.failed(e);
             Log.log.error("UserDAO.getUserRole", e);
         } finally {
             cdb.closeConnection(con);
@@ -9,7 +9,7 @@ import jakarta.servlet.annotation.WebFilter;
 import Database.UserDAO;
 import Logic.Log;
 
-@WebFilter("/*")
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
 public class AuthFilter implements Filter {
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest r = (HttpServletRequest) req;
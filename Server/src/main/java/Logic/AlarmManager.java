@@ -1,90 +1,81 @@
 package Logic;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 import Database.AlarmDAO;
+import Database.DatabaseUnavailableException;
 import Database.Range;
 import Database.RangeDAO;
 import Database.SubscriptionDAO;
 import Mqtt.MQTTBroker;
 import Mqtt.MQTTPublisher;
-
-import java.util.Map;
+import Utils.StageMetrics;
 
 public class AlarmManager {
 
     private static final Gson gson = new Gson();
 
-    public static void process(String topic, String payload) {
+    /**
+     * Compare the reading's data values against the configured parameter ranges,
+     * raising (WTH001) or clearing (WTH002) alarms on state changes. Consumes the
+     * reading decoded once by the ingest pipeline.
+     */
+    public static void process(String topic, SensorReading reading) {
         try {
-            JsonObject root = JsonParser.parseString(payload).getAsJsonObject();
-
-            String sensorId = null;
-            String streetId = null;
-            if (root.has("sensor_id")) sensorId = root.get("sensor_id").getAsString();
-            if (root.has("street_id")) streetId = root.get("street_id").getAsString();
-
-            JsonObject data = null;
-            if (root.has("data") && root.get("data").isJsonObject()) {
-                data = root.getAsJsonObject("data");
-            } else if (root.has("DATA") && root.get("DATA").isJsonObject()) {
-                data = root.getAsJsonObject("DATA");
-            }
-
-            if (data == null) return; // nothing to check
-
             RangeDAO rangeDao = new RangeDAO();
             AlarmDAO alarmDao = new AlarmDAO();
-            SubscriptionDAO subDao = new SubscriptionDAO();
-
-            for (Map.Entry<String, JsonElement> entry : data.entrySet()) {
-                String param = entry.getKey();
-                JsonElement el = entry.getValue();
-                if (el == null || el.isJsonNull()) continue;
-                Double value = null;
-                try {
-                    if (el.isJsonPrimitive() && el.getAsJsonPrimitive().isNumber()) {
-                        value = el.getAsDouble();
-                    } else {
-                        // skip non-numeric values
-                        continue;
-                    }
-                } catch (Exception ex) {
-                    continue;
-                }
-
-                Range r = rangeDao.getRangeForParameter(param);
-                if (r == null) {
-                    // no configured range: skip
-                    continue;
-                }
-
-                boolean outOfRange = false;
-                if (r.getMin() != null && value < r.getMin()) outOfRange = true;
-                if (r.getMax() != null && value > r.getMax()) outOfRange = true;
-
-                boolean hadActive = alarmDao.hasActiveAlarm(sensorId, param);
 
-                if (outOfRange && !hadActive) {
-                    // create alarm and send WTH001
-                    alarmDao.createAlarm(sensorId, streetId, param, value);
-                    sendAlertFor(topic, sensorId, param, value, "WTH001");
-                } else if (!outOfRange && hadActive) {
-                    // resolve alarm and send WTH002
-                    alarmDao.resolveAlarm(sensorId, param, value);
-                    sendAlertFor(topic, sensorId, param, value, "WTH002");
+            for (int i = 0; i < SensorReading.DATA_FIELD_COUNT; i++) {
+                if (reading.hasValue(i)) {
+                    check(topic, reading, SensorReading.MEASUREMENTS[i], reading.getValue(i), rangeDao, alarmDao);
                 }
             }
-
+            for (int i = 0; i < reading.getOtherDataCount(); i++) {
+                check(topic, reading, reading.getOtherDataName(i), reading.getOtherDataValue(i), rangeDao, alarmDao);
+            }
+        } catch (DatabaseUnavailableException e) {
+            // alarm state cannot be read: skip rather than raise or clear alarms blindly
+            Log.log.warn("Skipping alarm checks for {}: {}", reading.getSensorId(), e.getMessage());
         } catch (Exception e) {
-            Log.log.error("AlarmManager error processing payload: {}", e);
+            Log.log.error("AlarmManager error processing reading: {}", e);
+        }
+    }
+
+    private static void check(String topic, SensorReading reading, String param, double value, RangeDAO rangeDao, AlarmDAO alarmDao) {
+        long t0 = System.nanoTime();
+        Range r = rangeDao.getRangeForParameter(param);
+        StageMetrics.RANGE_LOOKUP.record(t0);
+        if (r == null) {
+            // no configured range: skip
+            return;
+        }
+
+        boolean outOfRange = false;
+        if (r.getMin() != null && value < r.getMin()) outOfRange = true;
+        if (r.getMax() != null && value > r.getMax()) outOfRange = true;
+
+        String sensorId = reading.getSensorId();
+        t0 = System.nanoTime();
+        boolean hadActive = alarmDao.hasActiveAlarm(sensorId, param);
+
+        if (outOfRange && !hadActive) {
+            // create alarm and send WTH001
+            alarmDao.createAlarm(sensorId, reading.getStreetId(), param, value);
+            StageMetrics.ALARM_DB.record(t0);
+            sendAlertFor(topic, sensorId, param, value, "WTH001");
+        } else if (!outOfRange && hadActive) {
+            // resolve alarm and send WTH002
+            alarmDao.resolveAlarm(sensorId, param, value);
+            StageMetrics.ALARM_DB.record(t0);
+            sendAlertFor(topic, sensorId, param, value, "WTH002");
+        } else {
+            StageMetrics.ALARM_DB.record(t0);
         }
     }
 
     private static void sendAlertFor(String subscriptionTopic, String sensorId, String parameter, Double value, String alertCode) {
+        long t0 = System.nanoTime();
         try {
             SubscriptionDAO subDao = new SubscriptionDAO();
             String alertTopic = subDao.getAlertTopicFor(subscriptionTopic);
@@ -105,6 +96,8 @@ public class AlarmManager {
             MQTTPublisher.publish(broker, alertTopic, gson.toJson(msg));
         } catch (Exception e) {
             Log.log.error("Error sending alert {} for {}: {}", alertCode, parameter, e);
+        } finally {
+            StageMetrics.ALERT_PUBLISH.record(t0);
         }
     }
 }
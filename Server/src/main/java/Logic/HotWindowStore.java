@@ -0,0 +1,249 @@
+package Logic;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Database.SensorReadingDAO;
+import Mqtt.MQTTBroker;
+
+/**
+ * The most recent readings of every station, kept in the JVM so that live
+ * views do not query MariaDB on every poll. Each sensor has a ring of its last
+ * CAPACITY readings: one long[] of recorded_at values and one double[] per
+ * measurement (allocated the first time the sensor reports it, NaN where a
+ * reading lacks it). The ring is kept in recorded_at order, so a reading that
+ * arrives late is slotted in behind the newer ones (or dropped if it is older
+ * than a full ring). Readings older than WINDOW_MS are never returned.
+ *
+ * Fed by the ingest pipeline after deduplication and warmed from the database
+ * at startup. When subscriptions are shared between nodes each node only sees
+ * part of the stream, so isServing() is false and callers query the database.
+ *
+ * Tunables (system properties): meteu.hot.capacity, meteu.hot.window.ms.
+ */
+public class HotWindowStore {
+
+    private static final int CAPACITY = Math.max(1, Integer.getInteger("meteu.hot.capacity", 512));
+    private static final long WINDOW_MS = Long.getLong("meteu.hot.window.ms", 60 * 60_000L);
+    private static final int SWEEP_EVERY = 4096;
+    // the fields of a live "messages" entry, as returned by the former SQL query
+    private static final int LIVE_FIELDS = SensorReading.DATA_FIELD_COUNT;
+
+    private static final class Station {
+        final String sensorId;
+        final long[] times = new long[CAPACITY];
+        final double[][] values = new double[SensorReading.MEASUREMENTS.length][];
+        int size;
+        int next;
+        String sensorType;
+        String streetId;
+        String district;
+        String neighborhood;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        double altitude = Double.NaN;
+        volatile long lastSeen = Long.MIN_VALUE;
+
+        Station(String sensorId) {
+            this.sensorId = sensorId;
+        }
+
+        synchronized void add(SensorReading r) {
+            long t = r.getRecordedAt();
+            // the ring stays in recorded_at order: a late reading goes behind the newer ones
+            int later = 0;
+            while (later < size && times[slot(later)] > t) later++;
+            if (later < CAPACITY) {
+                // move the newer readings one slot up; when full the oldest one is overwritten
+                int slot = next;
+                for (int i = 0; i < later; i++) {
+                    int from = slot(i);
+                    move(from, slot);
+                    slot = from;
+                }
+                times[slot] = t;
+                for (int i = 0; i < values.length; i++) {
+                    double[] column = values[i];
+                    if (column == null) {
+                        if (!r.hasValue(i)) continue;
+                        column = values[i] = new double[CAPACITY];
+                        Arrays.fill(column, Double.NaN);
+                    }
+                    column[slot] = r.getValue(i);
+                }
+                next = (next + 1) % CAPACITY;
+                if (size < CAPACITY) size++;
+            }
+            if (r.getSensorType() != null) sensorType = r.getSensorType();
+            if (r.getStreetId() != null) streetId = r.getStreetId();
+            if (r.getDistrict() != null) district = r.getDistrict();
+            if (r.getNeighborhood() != null) neighborhood = r.getNeighborhood();
+            if (!Double.isNaN(r.getLatitude())) latitude = r.getLatitude();
+            if (!Double.isNaN(r.getLongitude())) longitude = r.getLongitude();
+            if (!Double.isNaN(r.getAltitude())) altitude = r.getAltitude();
+            if (r.getRecordedAt() > lastSeen) lastSeen = r.getRecordedAt();
+        }
+
+        private void move(int from, int to) {
+            times[to] = times[from];
+            for (double[] column : values) {
+                if (column != null) column[to] = column[from];
+            }
+        }
+
+        /** Ring slot of the i-th newest reading (0 = newest). */
+        int slot(int i) {
+            return (next - 1 - i + 2 * CAPACITY) % CAPACITY;
+        }
+
+        /** The newest readings recorded at or after since, at most limit, newest first, as live rows. */
+        synchronized void latest(long since, int limit, List<Map<String, Object>> into) {
+            for (int i = 0; i < Math.min(size, limit); i++) {
+                int s = slot(i);
+                if (times[s] < since) continue;
+                Map<String, Object> m = new HashMap<>();
+                m.put("sensor_id", sensorId);
+                m.put("sensor_type", sensorType);
+                m.put("street_id", streetId);
+                m.put("recorded_at", new Timestamp(times[s]).toString());
+                m.put("latitude", Double.isNaN(latitude) ? null : latitude);
+                m.put("longitude", Double.isNaN(longitude) ? null : longitude);
+                m.put("altitude", Double.isNaN(altitude) ? null : altitude);
+                m.put("district", district);
+                m.put("neighborhood", neighborhood);
+                for (int p = 0; p < LIVE_FIELDS; p++) m.put(SensorReading.MEASUREMENTS[p], value(p, s));
+                into.add(m);
+            }
+        }
+
+        /** Readings recorded at or after since, oldest first, as one array per field. */
+        synchronized Map<String, Object> history(long since) {
+            int n = 0;
+            while (n < size && times[slot(n)] >= since) n++;
+            List<String> t = new ArrayList<>(n);
+            for (int i = n - 1; i >= 0; i--) t.add(SensorReadingDAO.formatTimestamp(new Timestamp(times[slot(i)])));
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sensor_id", sensorId);
+            m.put("recorded_at", t);
+            for (int p = 0; p < values.length; p++) {
+                if (values[p] == null) continue;
+                List<Object> column = new ArrayList<>(n);
+                for (int i = n - 1; i >= 0; i--) column.add(value(p, slot(i)));
+                m.put(SensorReading.MEASUREMENTS[p], column);
+            }
+            return m;
+        }
+
+        private Object value(int p, int slot) {
+            double[] column = values[p];
+            if (column == null || Double.isNaN(column[slot])) return null;
+            return SensorReading.isIntegerColumn(p) ? (Object) (int) column[slot] : (Object) column[slot];
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Station> stations = new ConcurrentHashMap<>();
+    private static final AtomicLong added = new AtomicLong();
+    private static final AtomicLong reads = new AtomicLong();
+    private static volatile boolean warmed = false;
+    private static final long startedAt = System.currentTimeMillis();
+
+    /** Pipeline stage: remember the reading. */
+    public static void add(SensorReading reading) {
+        if (reading.getSensorId() == null || !reading.hasRecordedAt()) return;
+        if (added.incrementAndGet() % SWEEP_EVERY == 0) sweep();
+        stations.computeIfAbsent(reading.getSensorId(), Station::new).add(reading);
+    }
+
+    /** Load the last WINDOW_MS of readings from the database; call before ingest starts. */
+    public static void warm() {
+        try {
+            List<SensorReading> recent = SensorReadingDAO.readingsSince(System.currentTimeMillis() - WINDOW_MS, null);
+            for (SensorReading r : recent) add(r);
+            warmed = true;
+            Log.log.info("Hot window warmed with {} readings of {} sensors", recent.size(), stations.size());
+        } catch (Exception e) {
+            Log.log.warn("Could not warm the hot window, live views use the database for {} ms: {}", WINDOW_MS, e.getMessage());
+        }
+    }
+
+    /** True when the store holds every recent reading, i.e. live reads can skip the database. */
+    public static boolean isServing() {
+        if (MQTTBroker.getShareGroup() != null) return false;
+        return warmed || System.currentTimeMillis() - startedAt >= WINDOW_MS;
+    }
+
+    /**
+     * The live view: the newest `messages` readings of all stations, newest
+     * first, and the stations with a reading in the last seenMs.
+     */
+    public static Map<String, Object> live(int messages, long seenMs) {
+        reads.incrementAndGet();
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        List<Map<String, Object>> seen = new ArrayList<>();
+        for (Station s : stations.values()) {
+            s.latest(now - WINDOW_MS, messages, rows);
+            long last = s.lastSeen;
+            if (last >= now - seenMs) {
+                Map<String, Object> m = new HashMap<>();
+                m.put("sensor_id", s.sensorId);
+                m.put("last_seen", new Timestamp(last).toString());
+                seen.add(m);
+            }
+        }
+        // recorded_at strings sort chronologically
+        rows.sort((a, b) -> ((String) b.get("recorded_at")).compareTo((String) a.get("recorded_at")));
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("messages", rows.size() > messages ? new ArrayList<>(rows.subList(0, messages)) : rows);
+        resp.put("stations", seen);
+        return resp;
+    }
+
+    /**
+     * Readings of one sensor in the last sinceMs (capped at the window), oldest
+     * first, as one array per field. Queries the database when not serving.
+     */
+    public static Map<String, Object> history(String sensorId, long sinceMs) {
+        reads.incrementAndGet();
+        long since = System.currentTimeMillis() - Math.min(sinceMs, WINDOW_MS);
+        Station s;
+        if (isServing()) {
+            s = stations.get(sensorId);
+        } else {
+            s = new Station(sensorId);
+            for (SensorReading r : SensorReadingDAO.readingsSince(since, sensorId)) s.add(r);
+        }
+        if (s == null) s = new Station(sensorId);
+        return s.history(since);
+    }
+
+    public static long getWindowMs() {
+        return WINDOW_MS;
+    }
+
+    private static void sweep() {
+        long cutoff = System.currentTimeMillis() - WINDOW_MS;
+        for (Iterator<Station> it = stations.values().iterator(); it.hasNext(); ) {
+            if (it.next().lastSeen < cutoff) it.remove();
+        }
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("serving", isServing());
+        m.put("capacity", CAPACITY);
+        m.put("window_ms", WINDOW_MS);
+        m.put("sensors", stations.size());
+        m.put("added", added.get());
+        m.put("reads", reads.get());
+        return m;
+    }
+}
@@ -0,0 +1,160 @@
+package Logic;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling of a time series that arrives
+ * oldest first, one point at a time. The number of points must be known up
+ * front (a COUNT(*) before the query): the first and last points are kept and
+ * the rest are split into threshold - 2 buckets of equal count, of which the
+ * point forming the largest triangle with the previously kept point and the
+ * average of the next bucket is kept. Only the current and the next bucket are
+ * held in memory, and kept points are passed on as soon as they are chosen.
+ *
+ * If the series ends early (rows deleted between the count and the query),
+ * whatever was read is still reduced correctly; extra rows must not be fed.
+ */
+public class LttbDownsampler {
+
+    /** Receives the kept points, oldest first. */
+    public interface Sink {
+        void point(long id, String sensorId, long time, double value) throws IOException;
+    }
+
+    /** Points of one bucket, in arrival order. */
+    private static final class Bucket {
+        long[] ids = new long[16];
+        String[] sensors = new String[16];
+        long[] times = new long[16];
+        double[] values = new double[16];
+        int size;
+
+        void add(long id, String sensorId, long time, double value) {
+            if (size == ids.length) {
+                int n = size * 2;
+                ids = Arrays.copyOf(ids, n);
+                sensors = Arrays.copyOf(sensors, n);
+                times = Arrays.copyOf(times, n);
+                values = Arrays.copyOf(values, n);
+            }
+            ids[size] = id;
+            sensors[size] = sensorId;
+            times[size] = time;
+            values[size] = value;
+            size++;
+        }
+
+        double avgTime() {
+            double s = 0;
+            for (int i = 0; i < size; i++) s += times[i];
+            return s / size;
+        }
+
+        double avgValue() {
+            double s = 0;
+            for (int i = 0; i < size; i++) s += values[i];
+            return s / size;
+        }
+
+        void clear() {
+            Arrays.fill(sensors, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private final Sink sink;
+    private final long total;
+    private final int threshold;
+    private final double every;
+
+    private Bucket current = new Bucket();
+    private Bucket next = new Bucket();
+    private int currentIndex = 0;
+    private long seen = 0L;
+    private long kept = 0L;
+
+    // the last kept point, vertex A of the triangles
+    private long aTime;
+    private double aValue;
+
+    /** Reduce a series of total points to at most threshold (at least 3) points. */
+    public LttbDownsampler(long total, int threshold, Sink sink) {
+        if (threshold < 3) throw new IllegalArgumentException("threshold must be at least 3");
+        this.sink = sink;
+        this.total = total;
+        this.threshold = threshold;
+        this.every = total > threshold ? (double) (total - 2) / (threshold - 2) : 0.0;
+    }
+
+    public void add(long id, String sensorId, long time, double value) throws IOException {
+        long i = seen++;
+        if (every == 0.0 || i == 0) {
+            // short series are passed through; the first point is always kept
+            keep(id, sensorId, time, value);
+            return;
+        }
+        int b = (int) Math.min(threshold - 3, (long) ((i - 1) / every));
+        if (b == currentIndex) {
+            current.add(id, sensorId, time, value);
+            return;
+        }
+        if (b > currentIndex + 1) {
+            // the next bucket is complete: choose from the current one
+            select(current, next.avgTime(), next.avgValue());
+            Bucket t = current;
+            current = next;
+            next = t;
+            next.clear();
+            currentIndex++;
+        }
+        next.add(id, sensorId, time, value);
+    }
+
+    /** Flush the remaining buckets and the last point; returns the number of points kept. */
+    public long finish() throws IOException {
+        if (every == 0.0 || seen <= 1) return kept;
+        // the last point read closes the series and is kept as is
+        Bucket tail = next.size > 0 ? next : current;
+        int l = tail.size - 1;
+        long lastId = tail.ids[l];
+        String lastSensor = tail.sensors[l];
+        long lastTime = tail.times[l];
+        double lastValue = tail.values[l];
+        tail.size--;
+        if (current.size > 0) {
+            if (next.size > 0) select(current, next.avgTime(), next.avgValue());
+            else select(current, lastTime, lastValue);
+        }
+        if (next.size > 0) select(next, lastTime, lastValue);
+        keep(lastId, lastSensor, lastTime, lastValue);
+        return kept;
+    }
+
+    public long getSeen() {
+        return seen;
+    }
+
+    private void select(Bucket bucket, double cTime, double cValue) throws IOException {
+        if (bucket.size == 0) return;
+        int best = 0;
+        double bestArea = -1.0;
+        for (int j = 0; j < bucket.size; j++) {
+            // twice the triangle area; only the comparison matters
+            double area = Math.abs((aTime - cTime) * (bucket.values[j] - aValue)
+                    - (aTime - bucket.times[j]) * (cValue - aValue));
+            if (area > bestArea) {
+                bestArea = area;
+                best = j;
+            }
+        }
+        keep(bucket.ids[best], bucket.sensors[best], bucket.times[best], bucket.values[best]);
+    }
+
+    private void keep(long id, String sensorId, long time, double value) throws IOException {
+        aTime = time;
+        aValue = value;
+        kept++;
+        sink.point(id, sensorId, time, value);
+    }
+}
@@ -21,7 +21,14 @@ public class Projectinitializer implements ServletContextListener {
     public void contextDestroyed(ServletContextEvent sce) {
         // shutdown background tasks
         try {
+            if (suscriber != null) suscriber.shutdown();
+            Database.SensorReadingBatchWriter.shutdown();
+            Database.ReadingSpool.shutdown();
             Database.RangeDAO.shutdownScheduler();
+            Database.PartitionManager.shutdownScheduler();
+            Database.RetentionEngine.shutdownScheduler();
+            ReadingExporter.shutdown();
+            StationRegistry.shutdownScheduler();
         } catch (Exception e) {
             Log.log.error("Error during contextDestroyed: {}", e);
         }
@@ -37,6 +44,16 @@ public class Projectinitializer implements ServletContextListener {
      * EN: Context event created during server launch
      */
     public void contextInitialized(ServletContextEvent sce) {
+        // refuse to start with a configuration that would leave orphaned MQTT sessions behind
+        MQTTBroker.checkConfiguration();
+
+        // replay readings spooled while the database was unavailable
+        Database.ReadingSpool.start();
+
+        // load recent readings for the live views and the stations before new ones arrive
+        HotWindowStore.warm();
+        StationRegistry.start();
+
         Log.log.info("-->Suscribe Topics<--");
         MQTTBroker broker = new MQTTBroker();
         suscriber = new MQTTSuscriber(broker);
@@ -45,6 +62,11 @@ public class Projectinitializer implements ServletContextListener {
         sce.getServletContext().setAttribute("mqttSubscriber", suscriber);
         MQTTPublisher.publish(broker, "test", "Hello from Tomcat :)");
 
+        // create upcoming sensor_readings partitions and drop expired ones, then hourly
+        Database.PartitionManager.start();
+        // purge rows past their retention period in small throttled chunks
+        Database.RetentionEngine.start();
+
         // Ensure parameter ranges cache is loaded at startup (blocking one-time load)
         try {
             new Database.RangeDAO().reloadAllRanges();
@@ -0,0 +1,194 @@
+package Logic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Database.QueryParams;
+import Mqtt.MQTTBroker;
+
+/**
+ * Results of /api/readings/query pages, kept as the JSON that was sent so that
+ * a repeated request is answered without touching MariaDB. Entries are keyed
+ * by QueryParams.cacheKey() and evicted least recently used once their JSON
+ * adds up to more than MAX_BYTES.
+ *
+ * An entry whose end lies before the ingest high-water mark (the newest
+ * recorded_at committed so far) is historical and stays valid until a late
+ * reading lands in its range or retention deletes part of it. Any other entry
+ * is live and is only valid until the next ingest commit. With shared
+ * subscriptions the other nodes' commits (late readings included) are not
+ * seen here, so nothing is cached.
+ *
+ * Tunables (system properties): meteu.query.cache.bytes (0 disables the cache),
+ * meteu.query.cache.entry.bytes.
+ */
+public class QueryCache {
+
+    private static final long MAX_BYTES = Long.getLong("meteu.query.cache.bytes", 16L * 1024 * 1024);
+    private static final long MAX_ENTRY_BYTES = Long.getLong("meteu.query.cache.entry.bytes", MAX_BYTES / 16);
+
+    /** A cached page: its JSON body and the cursor of the next page, if any. */
+    public static final class Entry {
+        private final String json;
+        private final String nextCursor;
+        final long start;
+        final long end;
+        final long version;
+        final boolean historical;
+
+        Entry(String json, String nextCursor, long start, long end, long version, boolean historical) {
+            this.json = json;
+            this.nextCursor = nextCursor;
+            this.start = start;
+            this.end = end;
+            this.version = version;
+            this.historical = historical;
+        }
+
+        public String getJson() { return json; }
+        public String getNextCursor() { return nextCursor; }
+
+        long bytes() {
+            return 2L * json.length() + 128;
+        }
+    }
+
+    /** Ingest state seen before a query ran; pass it to put() with the result. */
+    public static final class Stamp {
+        final long version;
+        final long lateVersion;
+        final long highWater;
+
+        Stamp(long version, long lateVersion, long highWater) {
+            this.version = version;
+            this.lateVersion = lateVersion;
+            this.highWater = highWater;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private static long bytes = 0L;
+    // bumped by every commit of readings, and by commits holding readings older than the high-water mark
+    private static long version = 0L;
+    private static long lateVersion = 0L;
+    private static long highWater = Long.MIN_VALUE;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return MAX_BYTES > 0 && MQTTBroker.getShareGroup() == null;
+    }
+
+    /** The cached page for params, or null. */
+    public static synchronized Entry get(QueryParams params) {
+        String key = params.cacheKey();
+        Entry e = entries.get(key);
+        if (e != null && !e.historical && e.version != version) {
+            remove(key);
+            invalidations.incrementAndGet();
+            e = null;
+        }
+        if (e == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return e;
+    }
+
+    public static synchronized Stamp stamp() {
+        return new Stamp(version, lateVersion, highWater);
+    }
+
+    /**
+     * Cache the page produced for params by a query that started at stamp.
+     * Dropped if ingest committed something since that the page may be missing.
+     */
+    public static void put(QueryParams params, Stamp stamp, String json, String nextCursor) {
+        if (!isEnabled()) return;
+        long start = params.getStart() == null ? Long.MIN_VALUE : params.getStart().getTime();
+        long end = params.getEnd() == null ? Long.MAX_VALUE : params.getEnd().getTime();
+        // readings stamped ahead of the clock move the high-water mark, not "now"
+        boolean historical = end < Math.min(stamp.highWater, System.currentTimeMillis());
+        Entry e = new Entry(json, nextCursor, start, end, stamp.version, historical);
+        if (e.bytes() > MAX_ENTRY_BYTES) return;
+        synchronized (QueryCache.class) {
+            if (historical ? lateVersion != stamp.lateVersion : version != stamp.version) return;
+            String key = params.cacheKey();
+            remove(key);
+            entries.put(key, e);
+            bytes += e.bytes();
+            for (Iterator<Entry> it = entries.values().iterator(); bytes > MAX_BYTES && it.hasNext(); ) {
+                bytes -= it.next().bytes();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Pipeline hook: readings with these recorded_at values (ms) were committed. */
+    public static void committed(List<SensorReading> readings) {
+        if (!isEnabled() || readings.isEmpty()) return;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (SensorReading r : readings) {
+            if (!r.hasRecordedAt()) continue;
+            min = Math.min(min, r.getRecordedAt());
+            max = Math.max(max, r.getRecordedAt());
+        }
+        synchronized (QueryCache.class) {
+            version++;
+            if (min == Long.MAX_VALUE) return;
+            if (min <= highWater) {
+                // late readings: historical pages covering them are now incomplete
+                lateVersion++;
+                invalidate(min, max);
+            }
+            if (max > highWater) highWater = max;
+        }
+    }
+
+    /** Readings recorded before cutoff (ms) were deleted. */
+    public static void deletedBefore(long cutoff) {
+        if (!isEnabled()) return;
+        synchronized (QueryCache.class) {
+            lateVersion++;
+            invalidate(Long.MIN_VALUE, cutoff);
+        }
+    }
+
+    private static void invalidate(long from, long to) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry e = it.next();
+            if (e.start <= to && e.end >= from) {
+                bytes -= e.bytes();
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private static void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) bytes -= old.bytes();
+    }
+
+    public static synchronized Map<String, Object> snapshot() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("enabled", isEnabled());
+        s.put("entries", entries.size());
+        s.put("bytes", bytes);
+        s.put("max_bytes", MAX_BYTES);
+        s.put("hits", h);
+        s.put("misses", m);
+        s.put("hit_rate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        s.put("evictions", evictions.get());
+        s.put("invalidations", invalidations.get());
+        return s;
+    }
+}
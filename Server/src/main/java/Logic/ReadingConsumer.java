@@ -0,0 +1,13 @@
+package Logic;
+
+/**
+ * A stage of the ingest pipeline. Each MQTT payload is decoded once into a
+ * SensorReading and the same instance is handed to every consumer in turn, so
+ * all stages see one interpretation of the message. Consumers must treat the
+ * reading as read-only.
+ */
+@FunctionalInterface
+public interface ReadingConsumer {
+
+    void accept(String topic, SensorReading reading);
+}
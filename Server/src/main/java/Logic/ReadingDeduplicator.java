@@ -0,0 +1,76 @@
+package Logic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops readings already seen, keyed on (sensor_id, recorded_at). QoS 1 with a
+ * persistent session means the broker redelivers unacknowledged messages after
+ * every reconnect, and stations may retransmit; without this each redelivery
+ * becomes another row and another alarm evaluation.
+ *
+ * Each sensor keeps a ring of its last WINDOW_SIZE timestamps, so memory is
+ * bounded per station; sensors silent for longer than IDLE_MS are forgotten.
+ * Readings without a timestamp cannot be told apart and always pass.
+ *
+ * Tunables (system properties): meteu.dedup.window, meteu.dedup.idle.ms.
+ */
+public class ReadingDeduplicator {
+
+    private static final int WINDOW_SIZE = Math.max(1, Integer.getInteger("meteu.dedup.window", 256));
+    private static final long IDLE_MS = Long.getLong("meteu.dedup.idle.ms", 15 * 60_000L);
+    private static final int SWEEP_EVERY = 4096;
+
+    private static final class Window {
+        final long[] seen = new long[WINDOW_SIZE];
+        int size;
+        int next;
+        volatile long lastUsed;
+
+        synchronized boolean add(long recordedAt) {
+            for (int i = 0; i < size; i++) {
+                if (seen[i] == recordedAt) return false;
+            }
+            seen[next] = recordedAt;
+            next = (next + 1) % seen.length;
+            if (size < seen.length) size++;
+            return true;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /** True the first time a (sensor, timestamp) pair is seen, false for a repeat. */
+    public boolean firstSeen(SensorReading reading) {
+        long n = checked.incrementAndGet();
+        if (n % SWEEP_EVERY == 0) sweep();
+        if (!reading.hasRecordedAt() || reading.getSensorId() == null) return true;
+
+        Window w = windows.computeIfAbsent(reading.getSensorId(), k -> new Window());
+        w.lastUsed = System.currentTimeMillis();
+        if (w.add(reading.getRecordedAt())) return true;
+        duplicates.incrementAndGet();
+        return false;
+    }
+
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - IDLE_MS;
+        for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); ) {
+            if (it.next().lastUsed < cutoff) it.remove();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("window", WINDOW_SIZE);
+        m.put("sensors", windows.size());
+        m.put("checked", checked.get());
+        m.put("duplicates", duplicates.get());
+        return m;
+    }
+}
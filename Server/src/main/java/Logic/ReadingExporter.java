@@ -0,0 +1,304 @@
+package Logic;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import Database.Pool;
+import Database.QueryParams;
+import Database.SensorReadingDAO;
+
+/**
+ * Bulk exports of sensor_readings as CSV or NDJSON, optionally gzip'd on the
+ * fly. Exports run on their own small executor and read through the EXPORT
+ * connection pool, so however many analysts pull data, ingest and the
+ * dashboards keep their threads and connections. Rows are written as text
+ * straight from the driver (getString) into a 64 KB buffer, with no per-row
+ * objects beyond the strings themselves.
+ *
+ * Tunables (system properties): meteu.export.threads, meteu.export.queue.
+ */
+public class ReadingExporter {
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() { return contentType; }
+        public String getExtension() { return extension; }
+    }
+
+    private static final int THREADS = Math.max(1, Integer.getInteger("meteu.export.threads", 2));
+    private static final int QUEUE = Math.max(1, Integer.getInteger("meteu.export.queue", 4));
+    private static final int BUFFER = 64 * 1024;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE), r -> {
+                Thread t = new Thread(r, "Export-Worker-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+
+    /** Progress of one export, listed on /admin/metrics while it runs. */
+    public static final class Progress {
+        private static final AtomicLong ids = new AtomicLong();
+
+        final long id = ids.incrementAndGet();
+        final String description;
+        final long startedAt = System.currentTimeMillis();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        public Progress(String description) {
+            this.description = description;
+        }
+
+        Map<String, Object> snapshot() {
+            double secs = Math.max(0.001, (System.currentTimeMillis() - startedAt) / 1000.0);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", id);
+            m.put("query", description);
+            m.put("started", Instant.ofEpochMilli(startedAt).toString());
+            m.put("rows", rows.get());
+            m.put("bytes", bytes.get());
+            m.put("rows_per_s", rows.get() / secs);
+            m.put("mb_per_s", bytes.get() / secs / (1024 * 1024));
+            return m;
+        }
+    }
+
+    private static final ConcurrentHashMap<Long, Progress> active = new ConcurrentHashMap<>();
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong rowsTotal = new AtomicLong();
+    private static final AtomicLong bytesTotal = new AtomicLong();
+    private static volatile double lastMbPerSec = 0.0;
+
+    /** Run an export task on the export executor; throws RejectedExecutionException when it is full. */
+    public static void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the readings matching params to out in the given format, gzip'd if
+     * asked. Returns the number of rows. DatabaseUnavailableException is thrown
+     * before anything is written; other failures surface as IOException.
+     */
+    public static long export(QueryParams params, Format format, boolean gzip, OutputStream out, Progress progress) throws IOException {
+        active.put(progress.id, progress);
+        boolean ok = false;
+        try {
+            OutputStream counted = new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    progress.bytes.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    progress.bytes.addAndGet(len);
+                }
+            };
+            GZIPOutputStream zip = gzip ? new GZIPOutputStream(counted, BUFFER) : null;
+            Writer w = new BufferedWriter(new OutputStreamWriter(zip != null ? zip : counted, StandardCharsets.UTF_8), BUFFER);
+            long n = SensorReadingDAO.streamReadings(params, Pool.EXPORT,
+                    format == Format.CSV ? new CsvRows(w, progress) : new NdjsonRows(w, progress));
+            w.flush();
+            if (zip != null) zip.finish();
+            counted.flush();
+            ok = true;
+            return n;
+        } finally {
+            active.remove(progress.id);
+            rowsTotal.addAndGet(progress.rows.get());
+            bytesTotal.addAndGet(progress.bytes.get());
+            if (ok) {
+                completed.incrementAndGet();
+                lastMbPerSec = progress.bytes.get() / Math.max(0.001, (System.currentTimeMillis() - progress.startedAt) / 1000.0) / (1024 * 1024);
+                Log.log.info("Export {} finished: {} rows, {} bytes", progress.id, progress.rows.get(), progress.bytes.get());
+            } else {
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Header line, then one line per row; empty fields are NULLs. */
+    private static final class CsvRows implements SensorReadingDAO.RowWriter {
+        private final Writer out;
+        private final Progress progress;
+        private boolean[] numeric;
+
+        CsvRows(Writer out, Progress progress) {
+            this.out = out;
+            this.progress = progress;
+        }
+
+        public void begin(ResultSetMetaData md) throws SQLException, IOException {
+            numeric = new boolean[md.getColumnCount() + 1];
+            for (int c = 1; c < numeric.length; c++) {
+                numeric[c] = isNumeric(md.getColumnType(c));
+                if (c > 1) out.write(',');
+                out.write(md.getColumnLabel(c));
+            }
+            out.write('\n');
+        }
+
+        public void row(ResultSet rs) throws SQLException, IOException {
+            for (int c = 1; c < numeric.length; c++) {
+                if (c > 1) out.write(',');
+                String v = rs.getString(c);
+                if (v == null) continue;
+                if (numeric[c] || (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0)) {
+                    out.write(v);
+                } else {
+                    out.write('"');
+                    out.write(v.replace("\"", "\"\""));
+                    out.write('"');
+                }
+            }
+            out.write('\n');
+            progress.rows.incrementAndGet();
+        }
+
+        public void end() {
+        }
+    }
+
+    /** One JSON object per line; NULL columns are left out, as in the JSON endpoints. */
+    private static final class NdjsonRows implements SensorReadingDAO.RowWriter {
+        private final Writer out;
+        private final Progress progress;
+        private String[] keys;
+        private boolean[] numeric;
+
+        NdjsonRows(Writer out, Progress progress) {
+            this.out = out;
+            this.progress = progress;
+        }
+
+        public void begin(ResultSetMetaData md) throws SQLException {
+            int n = md.getColumnCount();
+            keys = new String[n + 1];
+            numeric = new boolean[n + 1];
+            for (int c = 1; c <= n; c++) {
+                keys[c] = '"' + md.getColumnLabel(c) + "\":";
+                numeric[c] = isNumeric(md.getColumnType(c));
+            }
+        }
+
+        public void row(ResultSet rs) throws SQLException, IOException {
+            out.write('{');
+            boolean first = true;
+            for (int c = 1; c < keys.length; c++) {
+                String v = rs.getString(c);
+                if (v == null) continue;
+                if (!first) out.write(',');
+                first = false;
+                out.write(keys[c]);
+                if (numeric[c]) out.write(v);
+                else writeString(v);
+            }
+            out.write("}\n");
+            progress.rows.incrementAndGet();
+        }
+
+        private void writeString(String v) throws IOException {
+            out.write('"');
+            for (int i = 0; i < v.length(); i++) {
+                char ch = v.charAt(i);
+                if (ch == '"' || ch == '\\') {
+                    out.write('\\');
+                    out.write(ch);
+                } else if (ch < 0x20) {
+                    out.write(String.format("\\u%04x", (int) ch));
+                } else {
+                    out.write(ch);
+                }
+            }
+            out.write('"');
+        }
+
+        public void end() {
+        }
+    }
+
+    public static void shutdown() {
+        try {
+            executor.shutdownNow();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down ReadingExporter: {}", e);
+        }
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("threads", THREADS);
+        m.put("queued", executor.getQueue().size());
+        List<Map<String, Object>> running = new ArrayList<>();
+        for (Progress p : active.values()) running.add(p.snapshot());
+        m.put("active", running);
+        m.put("completed", completed.get());
+        m.put("failed", failed.get());
+        m.put("rejected", rejected.get());
+        m.put("rows", rowsTotal.get());
+        m.put("bytes", bytesTotal.get());
+        m.put("last_mb_per_s", lastMbPerSec);
+        return m;
+    }
+}
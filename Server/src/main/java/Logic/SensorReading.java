@@ -0,0 +1,115 @@
+package Logic;
+
+import java.util.Arrays;
+
+/**
+ * One station reading as stored in sensor_readings. Measurements are kept in a
+ * primitive array indexed like MEASUREMENTS; a missing value is NaN so nothing
+ * is boxed on the ingest path.
+ */
+public class SensorReading {
+
+    /** Measurement columns of sensor_readings, in table order: "data" fields first, then "extra" fields. */
+    public static final String[] MEASUREMENTS = {
+        "temp", "humid", "aqi", "lux", "sound_db", "atmhpa", "uv_index",
+        "bsec_status", "iaq", "static_iaq", "co2_eq", "breath_voc_eq", "raw_temperature", "raw_humidity",
+        "pressure_hpa", "gas_resistance_ohm", "gas_percentage", "stabilization_status", "run_in_status",
+        "sensor_heat_comp_temp", "sensor_heat_comp_hum"
+    };
+    /** Number of leading MEASUREMENTS that belong to the "data" object; the rest come from "extra". */
+    public static final int DATA_FIELD_COUNT = 7;
+
+    /** recordedAt value of a reading without timestamp. */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    public static final int AQI = 2;
+    public static final int BSEC_STATUS = 7;
+
+    private String sensorId;
+    private String sensorType;
+    private String streetId;
+    private long recordedAt = NO_TIME;
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+    private double altitude = Double.NaN;
+    private String district;
+    private String neighborhood;
+    private final double[] values = new double[MEASUREMENTS.length];
+    // numeric members of the "data" object that are not sensor_readings columns (alarm checks only)
+    private String[] otherNames;
+    private double[] otherValues;
+    private int otherCount;
+
+    public SensorReading() {
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /** Index of a measurement column in MEASUREMENTS, or -1 if unknown. */
+    public static int indexOf(String column) {
+        for (int i = 0; i < MEASUREMENTS.length; i++) {
+            if (MEASUREMENTS[i].equals(column)) return i;
+        }
+        return -1;
+    }
+
+    /** aqi and bsec_status are INT columns, everything else is DOUBLE. */
+    public static boolean isIntegerColumn(int index) {
+        return index == AQI || index == BSEC_STATUS;
+    }
+
+    public String getSensorId() { return sensorId; }
+    public void setSensorId(String sensorId) { this.sensorId = sensorId; }
+
+    public String getSensorType() { return sensorType; }
+    public void setSensorType(String sensorType) { this.sensorType = sensorType; }
+
+    public String getStreetId() { return streetId; }
+    public void setStreetId(String streetId) { this.streetId = streetId; }
+
+    /** Epoch milliseconds of the station timestamp, NO_TIME when absent. */
+    public long getRecordedAt() { return recordedAt; }
+    public void setRecordedAt(long recordedAt) { this.recordedAt = recordedAt; }
+    public boolean hasRecordedAt() { return recordedAt != NO_TIME; }
+
+    public double getLatitude() { return latitude; }
+    public void setLatitude(double latitude) { this.latitude = latitude; }
+
+    public double getLongitude() { return longitude; }
+    public void setLongitude(double longitude) { this.longitude = longitude; }
+
+    public double getAltitude() { return altitude; }
+    public void setAltitude(double altitude) { this.altitude = altitude; }
+
+    public String getDistrict() { return district; }
+    public void setDistrict(String district) { this.district = district; }
+
+    public String getNeighborhood() { return neighborhood; }
+    public void setNeighborhood(String neighborhood) { this.neighborhood = neighborhood; }
+
+    /** Value of the measurement at MEASUREMENTS[index], NaN when absent. */
+    public double getValue(int index) { return values[index]; }
+    public void setValue(int index, double value) { values[index] = value; }
+
+    public boolean hasValue(int index) { return !Double.isNaN(values[index]); }
+
+    /**
+     * Record a numeric "data" member that has no column in sensor_readings. It is
+     * not persisted but is still checked against parameter_ranges.
+     */
+    public void addOtherData(String name, double value) {
+        if (otherNames == null) {
+            otherNames = new String[4];
+            otherValues = new double[4];
+        } else if (otherCount == otherNames.length) {
+            otherNames = Arrays.copyOf(otherNames, otherCount * 2);
+            otherValues = Arrays.copyOf(otherValues, otherCount * 2);
+        }
+        otherNames[otherCount] = name;
+        otherValues[otherCount] = value;
+        otherCount++;
+    }
+
+    public int getOtherDataCount() { return otherCount; }
+    public String getOtherDataName(int i) { return otherNames[i]; }
+    public double getOtherDataValue(int i) { return otherValues[i]; }
+}
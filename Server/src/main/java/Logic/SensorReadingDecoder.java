@@ -0,0 +1,544 @@
+package Logic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import Utils.TimestampUtil;
+
+/**
+ * Streaming decoder for station payloads. Reads the UTF-8 JSON straight from the
+ * MQTT byte[] into a SensorReading: keys are matched against pre-encoded byte
+ * arrays and numbers are parsed in place, so no intermediate Map, no boxed
+ * numbers and no String round trip per value. Only the string columns
+ * (sensor_id, district, ...) allocate.
+ *
+ * Field resolution follows the rules of the previous Gson-based parser:
+ *  - location.lat/long|lng/alt/district/neighborhood, falling back to the same
+ *    top-level keys; if there is no location object, top-level latitude/longitude
+ *    are accepted as well.
+ *  - data.* falls back to the top-level key of the same name.
+ *  - extra.* has no fallback.
+ *  - timestamp falls back to recorded_at; both are parsed in place by TimestampUtil.
+ * Numbers sent as strings are accepted; aqi and bsec_status are truncated to int.
+ *
+ * Decoders keep scratch state and are not thread safe: use decode(), which keeps
+ * one instance per thread.
+ */
+public final class SensorReadingDecoder {
+
+    private static final ThreadLocal<SensorReadingDecoder> LOCAL = ThreadLocal.withInitial(SensorReadingDecoder::new);
+
+    private static final byte[] K_SENSOR_ID = key("sensor_id");
+    private static final byte[] K_SENSOR_TYPE = key("sensor_type");
+    private static final byte[] K_STREET_ID = key("street_id");
+    private static final byte[] K_TIMESTAMP = key("timestamp");
+    private static final byte[] K_RECORDED_AT = key("recorded_at");
+    private static final byte[] K_LOCATION = key("location");
+    private static final byte[] K_DATA = key("data");
+    private static final byte[] K_EXTRA = key("extra");
+    private static final byte[] K_DISTRICT = key("district");
+    private static final byte[] K_NEIGHBORHOOD = key("neighborhood");
+
+    // numeric location keys, indexes into the loc/top scratch arrays
+    private static final byte[][] LOC_KEYS = { key("lat"), key("long"), key("lng"), key("alt"), key("latitude"), key("longitude") };
+    private static final int LAT = 0, LONG = 1, LNG = 2, ALT = 3, LATITUDE = 4, LONGITUDE = 5;
+
+    private static final byte[][] MEASUREMENT_KEYS = new byte[SensorReading.MEASUREMENTS.length][];
+    static {
+        for (int i = 0; i < MEASUREMENT_KEYS.length; i++) MEASUREMENT_KEYS[i] = key(SensorReading.MEASUREMENTS[i]);
+    }
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private byte[] b;
+    private int pos;
+    private int end;
+
+    // last key read: b[keyStart, keyEnd), or keyBytes when the key contained escapes
+    private int keyStart;
+    private int keyEnd;
+    private byte[] keyBytes;
+
+    // scratch for values that need a fallback decision once the whole document is read
+    private final double[] loc = new double[LOC_KEYS.length];
+    private final double[] top = new double[LOC_KEYS.length];
+    private final double[] data = new double[SensorReading.DATA_FIELD_COUNT];
+    private final double[] topData = new double[SensorReading.DATA_FIELD_COUNT];
+    private String locDistrict, locNeighborhood, topDistrict, topNeighborhood;
+    private long timestamp, recordedAt;
+    private boolean hasLocation;
+
+    // result of the last string scan
+    private int strStart;
+    private int strEnd;
+    private boolean strEscaped;
+
+    /** Decode a station payload using this thread's decoder. */
+    public static SensorReading decode(byte[] payload) {
+        return LOCAL.get().read(payload, 0, payload.length);
+    }
+
+    public SensorReading read(byte[] buf, int offset, int length) {
+        this.b = buf;
+        this.pos = offset;
+        this.end = offset + length;
+        reset();
+        SensorReading r = new SensorReading();
+
+        skipWs();
+        expect('{');
+        skipWs();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            while (true) {
+                readKey();
+                skipWs();
+                expect(':');
+                skipWs();
+                readTopLevelValue(r);
+                skipWs();
+                byte c = next();
+                if (c == '}') break;
+                if (c != ',') throw error("expected ',' or '}'");
+                skipWs();
+            }
+        }
+
+        // timestamp may be under "timestamp" or "recorded_at"
+        r.setRecordedAt(timestamp != SensorReading.NO_TIME ? timestamp : recordedAt);
+
+        resolveLocation(r);
+
+        for (int i = 0; i < SensorReading.DATA_FIELD_COUNT; i++) {
+            double v = !Double.isNaN(data[i]) ? data[i] : topData[i];
+            if (!Double.isNaN(v)) r.setValue(i, v);
+        }
+        this.b = null;
+        return r;
+    }
+
+    private void reset() {
+        Arrays.fill(loc, Double.NaN);
+        Arrays.fill(top, Double.NaN);
+        Arrays.fill(data, Double.NaN);
+        Arrays.fill(topData, Double.NaN);
+        locDistrict = locNeighborhood = topDistrict = topNeighborhood = null;
+        timestamp = recordedAt = SensorReading.NO_TIME;
+        hasLocation = false;
+    }
+
+    private void resolveLocation(SensorReading r) {
+        double lat, lng, alt;
+        String district, neighborhood;
+        if (!hasLocation) {
+            lat = top[LAT];
+            lng = !Double.isNaN(top[LONG]) ? top[LONG] : top[LNG];
+            alt = top[ALT];
+            district = topDistrict;
+            neighborhood = topNeighborhood;
+            // also accept 'latitude'/'longitude' as top-level
+            if (Double.isNaN(lat)) lat = top[LATITUDE];
+            if (Double.isNaN(lng)) lng = top[LONGITUDE];
+        } else {
+            lat = !Double.isNaN(loc[LAT]) ? loc[LAT] : top[LAT];
+            lng = !Double.isNaN(loc[LONG]) ? loc[LONG] : !Double.isNaN(loc[LNG]) ? loc[LNG]
+                    : !Double.isNaN(top[LONG]) ? top[LONG] : top[LNG];
+            alt = !Double.isNaN(loc[ALT]) ? loc[ALT] : top[ALT];
+            district = locDistrict != null ? locDistrict : topDistrict;
+            neighborhood = locNeighborhood != null ? locNeighborhood : topNeighborhood;
+        }
+        r.setLatitude(lat);
+        r.setLongitude(lng);
+        r.setAltitude(alt);
+        r.setDistrict(district);
+        r.setNeighborhood(neighborhood);
+    }
+
+    private void readTopLevelValue(SensorReading r) {
+        if (keyIs(K_SENSOR_ID)) { r.setSensorId(readStringValue()); return; }
+        if (keyIs(K_SENSOR_TYPE)) { r.setSensorType(readStringValue()); return; }
+        if (keyIs(K_STREET_ID)) { r.setStreetId(readStringValue()); return; }
+        if (keyIs(K_TIMESTAMP)) { timestamp = readTimestampValue(); return; }
+        if (keyIs(K_RECORDED_AT)) { recordedAt = readTimestampValue(); return; }
+        if (keyIs(K_DISTRICT)) { topDistrict = readStringValue(); return; }
+        if (keyIs(K_NEIGHBORHOOD)) { topNeighborhood = readStringValue(); return; }
+        if (keyIs(K_LOCATION)) {
+            if (peek() == '{') { hasLocation = true; readLocation(); } else skipValue();
+            return;
+        }
+        if (keyIs(K_DATA)) {
+            if (peek() == '{') readMeasurements(data, 0, SensorReading.DATA_FIELD_COUNT, r); else skipValue();
+            return;
+        }
+        if (keyIs(K_EXTRA)) {
+            if (peek() == '{') readMeasurements(null, SensorReading.DATA_FIELD_COUNT, SensorReading.MEASUREMENTS.length, r); else skipValue();
+            return;
+        }
+        int li = matchKey(LOC_KEYS, 0, LOC_KEYS.length);
+        if (li >= 0) { top[li] = readNumberValue(false); return; }
+        int mi = matchKey(MEASUREMENT_KEYS, 0, SensorReading.DATA_FIELD_COUNT);
+        if (mi >= 0) { topData[mi] = readNumberValue(SensorReading.isIntegerColumn(mi)); return; }
+        skipValue();
+    }
+
+    private void readLocation() {
+        pos++; // '{'
+        skipWs();
+        if (peek() == '}') { pos++; return; }
+        while (true) {
+            readKey();
+            skipWs();
+            expect(':');
+            skipWs();
+            int li = matchKey(LOC_KEYS, 0, ALT + 1);
+            if (li >= 0) loc[li] = readNumberValue(false);
+            else if (keyIs(K_DISTRICT)) locDistrict = readStringValue();
+            else if (keyIs(K_NEIGHBORHOOD)) locNeighborhood = readStringValue();
+            else skipValue();
+            if (endOfMember()) return;
+        }
+    }
+
+    /**
+     * Read an object whose members are measurement columns [from, to). Values go
+     * to target[i - from], or straight into the reading when target is null.
+     * Other numeric members of the "data" object (target != null) are kept on the
+     * reading for the alarm stage.
+     */
+    private void readMeasurements(double[] target, int from, int to, SensorReading r) {
+        pos++; // '{'
+        skipWs();
+        if (peek() == '}') { pos++; return; }
+        while (true) {
+            readKey();
+            skipWs();
+            expect(':');
+            skipWs();
+            int mi = matchKey(MEASUREMENT_KEYS, from, to);
+            if (mi >= 0) {
+                double v = readNumberValue(SensorReading.isIntegerColumn(mi));
+                if (target != null) target[mi - from] = v;
+                else if (!Double.isNaN(v)) r.setValue(mi, v);
+            } else if (target != null && (peek() == '-' || (peek() >= '0' && peek() <= '9'))) {
+                String name = keyBytes != null ? new String(keyBytes, StandardCharsets.UTF_8)
+                        : new String(b, keyStart, keyEnd - keyStart, StandardCharsets.UTF_8);
+                r.addOtherData(name, parseNumber(pos, end));
+            } else {
+                skipValue();
+            }
+            if (endOfMember()) return;
+        }
+    }
+
+    /** Consume ',' (returns false) or '}' (returns true) after an object member. */
+    private boolean endOfMember() {
+        skipWs();
+        byte c = next();
+        if (c == '}') return true;
+        if (c != ',') throw error("expected ',' or '}'");
+        skipWs();
+        return false;
+    }
+
+    // ---- keys -------------------------------------------------------------
+
+    private void readKey() {
+        if (peek() != '"') throw error("expected object key");
+        scanString();
+        if (strEscaped) {
+            keyBytes = decodeString(strStart, strEnd).getBytes(StandardCharsets.UTF_8);
+        } else {
+            keyBytes = null;
+            keyStart = strStart;
+            keyEnd = strEnd;
+        }
+    }
+
+    private boolean keyIs(byte[] k) {
+        if (keyBytes != null) return Arrays.equals(keyBytes, k);
+        int len = keyEnd - keyStart;
+        if (len != k.length) return false;
+        for (int i = 0; i < len; i++) {
+            if (b[keyStart + i] != k[i]) return false;
+        }
+        return true;
+    }
+
+    private int matchKey(byte[][] keys, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (keyIs(keys[i])) return i;
+        }
+        return -1;
+    }
+
+    // ---- values -----------------------------------------------------------
+
+    /**
+     * Read a value into a String column. Numbers keep the previous rendering
+     * (Double.toString, e.g. 7 becomes "7.0"); objects, arrays and null give null.
+     */
+    private String readStringValue() {
+        byte c = peek();
+        if (c == '"') {
+            scanString();
+            return strEscaped ? decodeString(strStart, strEnd) : new String(b, strStart, strEnd - strStart, StandardCharsets.UTF_8);
+        }
+        if (c == 't' || c == 'f') {
+            boolean v = c == 't';
+            skipValue();
+            return v ? "true" : "false";
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return Double.toString(parseNumber(pos, end));
+        }
+        skipValue();
+        return null;
+    }
+
+    /** Parse an ISO-8601 string value in place; other value types give NO_TIME. */
+    private long readTimestampValue() {
+        if (peek() != '"') {
+            skipValue();
+            return SensorReading.NO_TIME;
+        }
+        scanString();
+        long ms = strEscaped ? TimestampUtil.parseIso(decodeString(strStart, strEnd)) : TimestampUtil.parseIso(b, strStart, strEnd);
+        return ms == TimestampUtil.NONE ? SensorReading.NO_TIME : ms;
+    }
+
+    /**
+     * Read a value into a numeric column. Accepts JSON numbers and numeric
+     * strings; anything else yields NaN (absent). Integer columns are truncated
+     * and dropped when out of int range.
+     */
+    private double readNumberValue(boolean integer) {
+        byte c = peek();
+        double v;
+        if (c == '"') {
+            scanString();
+            v = parseNumericString(strStart, strEnd, strEscaped);
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            v = parseNumber(pos, end);
+        } else {
+            skipValue();
+            return Double.NaN;
+        }
+        if (integer && !Double.isNaN(v)) {
+            if (v >= 2147483648.0 || v <= -2147483649.0) return Double.NaN;
+            v = (int) v;
+        }
+        return v;
+    }
+
+    private double parseNumericString(int from, int to, boolean escaped) {
+        if (!escaped) {
+            int p = from, q = to;
+            while (p < q && b[p] <= ' ') p++;
+            while (q > p && b[q - 1] <= ' ') q--;
+            int saved = pos;
+            try {
+                double v = parseNumber(p, q);
+                if (pos == q) return v;
+            } catch (IllegalArgumentException ignored) {
+                // not plain JSON number syntax: fall through to the JDK parser
+            } finally {
+                pos = saved;
+            }
+        }
+        try {
+            return Double.parseDouble(decodeString(from, to));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parse a JSON number starting at p. Numbers with at most 15 significant digits
+     * and a small exponent are computed exactly from a long mantissa (same result
+     * as Double.parseDouble); anything longer falls back to the JDK parser.
+     * Leaves pos after the number.
+     */
+    private double parseNumber(int p, int limit) {
+        int start = p;
+        boolean neg = false;
+        if (p < limit && b[p] == '-') { neg = true; p++; }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean any = false;
+        while (p < limit && b[p] >= '0' && b[p] <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b[p] - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exp10++;
+                digits++;
+            }
+            p++;
+            any = true;
+        }
+        if (p < limit && b[p] == '.') {
+            p++;
+            while (p < limit && b[p] >= '0' && b[p] <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b[p] - '0');
+                    if (mantissa != 0) digits++;
+                    exp10--;
+                } else {
+                    digits++;
+                }
+                p++;
+                any = true;
+            }
+        }
+        if (!any) throw error("invalid number");
+        if (p < limit && (b[p] == 'e' || b[p] == 'E')) {
+            p++;
+            boolean eneg = false;
+            if (p < limit && (b[p] == '+' || b[p] == '-')) { eneg = b[p] == '-'; p++; }
+            int e = 0;
+            boolean edigits = false;
+            while (p < limit && b[p] >= '0' && b[p] <= '9') {
+                if (e < 10_000) e = e * 10 + (b[p] - '0');
+                p++;
+                edigits = true;
+            }
+            if (!edigits) throw error("invalid number");
+            exp10 += eneg ? -e : e;
+        }
+        pos = p;
+        double v;
+        if (digits <= 15 && exp10 >= -22 && exp10 <= 22) {
+            v = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+            if (neg) v = -v;
+        } else {
+            v = Double.parseDouble(new String(b, start, p - start, StandardCharsets.US_ASCII));
+        }
+        return v;
+    }
+
+    /** Scan a string starting at the opening quote; sets strStart/strEnd/strEscaped. */
+    private void scanString() {
+        pos++; // opening quote
+        strStart = pos;
+        strEscaped = false;
+        while (pos < end) {
+            byte c = b[pos];
+            if (c == '"') {
+                strEnd = pos++;
+                return;
+            }
+            if (c == '\\') {
+                strEscaped = true;
+                pos += 2;
+            } else {
+                pos++;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private String decodeString(int from, int to) {
+        StringBuilder sb = new StringBuilder(to - from);
+        int p = from;
+        while (p < to) {
+            int runStart = p;
+            while (p < to && b[p] != '\\') p++;
+            if (p > runStart) sb.append(new String(b, runStart, p - runStart, StandardCharsets.UTF_8));
+            if (p >= to) break;
+            byte esc = b[p + 1];
+            p += 2;
+            switch (esc) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (p + 4 > to) throw error("invalid unicode escape");
+                    int cp = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int d = Character.digit(b[p + i], 16);
+                        if (d < 0) throw error("invalid unicode escape");
+                        cp = (cp << 4) | d;
+                    }
+                    sb.append((char) cp);
+                    p += 4;
+                    break;
+                default: sb.append((char) esc); break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void skipValue() {
+        byte c = peek();
+        switch (c) {
+            case '"':
+                scanString();
+                return;
+            case '{':
+            case '[': {
+                int depth = 0;
+                while (pos < end) {
+                    byte x = b[pos];
+                    if (x == '"') { scanString(); continue; }
+                    pos++;
+                    if (x == '{' || x == '[') depth++;
+                    else if (x == '}' || x == ']') {
+                        if (--depth == 0) return;
+                    }
+                }
+                throw error("unterminated value");
+            }
+            case 't': literal("true"); return;
+            case 'f': literal("false"); return;
+            case 'n': literal("null"); return;
+            default:
+                parseNumber(pos, end);
+        }
+    }
+
+    private void literal(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (pos >= end || b[pos] != word.charAt(i)) throw error("invalid literal");
+            pos++;
+        }
+    }
+
+    // ---- low level --------------------------------------------------------
+
+    private void skipWs() {
+        while (pos < end) {
+            byte c = b[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= end) throw error("unexpected end of payload");
+        return b[pos];
+    }
+
+    private byte next() {
+        if (pos >= end) throw error("unexpected end of payload");
+        return b[pos++];
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("expected '" + c + "'");
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException("Malformed payload: " + msg + " at offset " + pos);
+    }
+
+    private static byte[] key(String k) {
+        return k.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,296 @@
+package Logic;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Database.SensorReadingDAO;
+import Mqtt.MQTTBroker;
+
+/**
+ * Every station that has reported, with its last location and its last "data"
+ * values, indexed on a grid of CELL_DEG x CELL_DEG degree cells so that map
+ * viewports (bounding boxes) and nearest-station lookups only look at the
+ * cells around them instead of every station.
+ *
+ * Fed by the ingest pipeline and loaded from the newest reading of each sensor
+ * at startup. When subscriptions are shared between nodes each node only sees
+ * part of the stream, so the registry is also reloaded every REFRESH_MS.
+ *
+ * Tunables (system properties): meteu.stations.cell.deg, meteu.stations.refresh.ms.
+ */
+public class StationRegistry {
+
+    private static final double CELL_DEG = Double.parseDouble(System.getProperty("meteu.stations.cell.deg", "0.01"));
+    private static final long REFRESH_MS = Long.getLong("meteu.stations.refresh.ms", 60_000L);
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+    // a bounding box spanning more cells than this is answered by a scan of all stations
+    private static final int MAX_SCAN_CELLS = 4096;
+
+    private static final class Station {
+        final String sensorId;
+        volatile String sensorType;
+        volatile String streetId;
+        volatile String district;
+        volatile String neighborhood;
+        volatile double latitude = Double.NaN;
+        volatile double longitude = Double.NaN;
+        volatile double altitude = Double.NaN;
+        volatile long cell = Long.MIN_VALUE;
+        volatile long lastSeen = Long.MIN_VALUE;
+        final double[] last = new double[SensorReading.DATA_FIELD_COUNT];
+
+        Station(String sensorId) {
+            this.sensorId = sensorId;
+            Arrays.fill(last, Double.NaN);
+        }
+
+        boolean located() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+
+        synchronized Map<String, Object> toJson() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sensor_id", sensorId);
+            m.put("sensor_type", sensorType);
+            m.put("street_id", streetId);
+            m.put("district", district);
+            m.put("neighborhood", neighborhood);
+            m.put("latitude", latitude);
+            m.put("longitude", longitude);
+            m.put("altitude", Double.isNaN(altitude) ? null : altitude);
+            m.put("last_seen", lastSeen == Long.MIN_VALUE ? null : SensorReadingDAO.formatTimestamp(new Timestamp(lastSeen)));
+            Map<String, Object> data = new LinkedHashMap<>();
+            for (int i = 0; i < last.length; i++) {
+                if (Double.isNaN(last[i])) continue;
+                data.put(SensorReading.MEASUREMENTS[i], SensorReading.isIntegerColumn(i) ? (Object) (int) last[i] : (Object) last[i]);
+            }
+            m.put("last", data);
+            return m;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Station> stations = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Long, Set<Station>> grid = new ConcurrentHashMap<>();
+    private static final AtomicLong updates = new AtomicLong();
+    private static final AtomicLong queries = new AtomicLong();
+    private static volatile long lastLoad = 0L;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "StationRegistry-Scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Pipeline stage: update the station of the reading. */
+    public static void add(SensorReading reading) {
+        if (reading.getSensorId() == null) return;
+        Station s = stations.computeIfAbsent(reading.getSensorId(), Station::new);
+        long cell;
+        synchronized (s) {
+            // an older reading (replayed or late) must not move the station back
+            if (reading.hasRecordedAt() && reading.getRecordedAt() < s.lastSeen) return;
+            if (reading.hasRecordedAt()) s.lastSeen = reading.getRecordedAt();
+            if (reading.getSensorType() != null) s.sensorType = reading.getSensorType();
+            if (reading.getStreetId() != null) s.streetId = reading.getStreetId();
+            if (reading.getDistrict() != null) s.district = reading.getDistrict();
+            if (reading.getNeighborhood() != null) s.neighborhood = reading.getNeighborhood();
+            if (!Double.isNaN(reading.getAltitude())) s.altitude = reading.getAltitude();
+            for (int i = 0; i < s.last.length; i++) {
+                if (reading.hasValue(i)) s.last[i] = reading.getValue(i);
+            }
+            if (Double.isNaN(reading.getLatitude()) || Double.isNaN(reading.getLongitude())) return;
+            s.latitude = reading.getLatitude();
+            s.longitude = reading.getLongitude();
+            cell = cellOf(s.latitude, s.longitude);
+            if (cell != s.cell) {
+                if (s.cell != Long.MIN_VALUE) {
+                    Set<Station> old = grid.get(s.cell);
+                    if (old != null) old.remove(s);
+                }
+                grid.computeIfAbsent(cell, k -> ConcurrentHashMap.newKeySet()).add(s);
+                s.cell = cell;
+            }
+        }
+        updates.incrementAndGet();
+    }
+
+    /** Load the newest reading of every sensor; call before ingest starts. */
+    public static void load() {
+        try {
+            List<SensorReading> latest = SensorReadingDAO.latestReadings();
+            for (SensorReading r : latest) add(r);
+            lastLoad = System.currentTimeMillis();
+            Log.log.info("Station registry loaded with {} stations", stations.size());
+        } catch (Exception e) {
+            Log.log.warn("Could not load the station registry, it fills up as stations report: {}", e.getMessage());
+        }
+    }
+
+    /** Load now and, when subscriptions are shared, reload every REFRESH_MS. */
+    public static void start() {
+        load();
+        if (MQTTBroker.getShareGroup() == null || REFRESH_MS <= 0) return;
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (Throwable t) {
+                Log.log.error("Station registry refresh failed: {}", t);
+            }
+        }, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void shutdownScheduler() {
+        try {
+            scheduler.shutdownNow();
+        } catch (Exception e) {
+            Log.log.error("Error shutting down StationRegistry scheduler: {}", e);
+        }
+    }
+
+    /** Located stations inside the box (clamped to valid coordinates), in no particular order. */
+    public static List<Map<String, Object>> within(double minLat, double minLon, double maxLat, double maxLon) {
+        queries.incrementAndGet();
+        List<Map<String, Object>> result = new ArrayList<>();
+        minLat = Math.max(-90.0, minLat);
+        maxLat = Math.min(90.0, maxLat);
+        minLon = Math.max(-180.0, minLon);
+        maxLon = Math.min(180.0, maxLon);
+        if (!(minLat <= maxLat && minLon <= maxLon)) return result;
+        long rows = cellIndex(maxLat) - cellIndex(minLat) + 1;
+        long cols = cellIndex(maxLon) - cellIndex(minLon) + 1;
+        // each dimension is capped before multiplying, so the product cannot overflow
+        if (rows > MAX_SCAN_CELLS || cols > MAX_SCAN_CELLS || rows * cols > MAX_SCAN_CELLS) {
+            for (Station s : stations.values()) {
+                if (inside(s, minLat, minLon, maxLat, maxLon)) result.add(s.toJson());
+            }
+            return result;
+        }
+        for (long y = cellIndex(minLat); y <= cellIndex(maxLat); y++) {
+            for (long x = cellIndex(minLon); x <= cellIndex(maxLon); x++) {
+                Set<Station> cell = grid.get(key(y, x));
+                if (cell == null) continue;
+                for (Station s : cell) {
+                    if (inside(s, minLat, minLon, maxLat, maxLon)) result.add(s.toJson());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The k located stations closest to the point, nearest first, each with its
+     * distance_m. Rings of cells are searched outwards until no unsearched cell
+     * can hold a closer station than the k-th found.
+     */
+    public static List<Map<String, Object>> nearest(double lat, double lon, int k) {
+        queries.incrementAndGet();
+        if (stations.isEmpty()) return new ArrayList<>();
+        // max-heap on distance holding the best k so far
+        PriorityQueue<Object[]> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare((Double) b[1], (Double) a[1]));
+        long cy = cellIndex(lat);
+        long cx = cellIndex(lon);
+        long maxRing = (long) Math.ceil(180.0 / CELL_DEG);
+        for (long ring = 0; ring <= maxRing; ring++) {
+            if (ring * ring > MAX_SCAN_CELLS) {
+                // far apart stations: a full scan is cheaper than walking empty rings
+                best.clear();
+                offer(best, stations.values(), lat, lon, k);
+                break;
+            }
+            for (long y = cy - ring; y <= cy + ring; y++) {
+                for (long x = cx - ring; x <= cx + ring; x++) {
+                    if (Math.max(Math.abs(y - cy), Math.abs(x - cx)) != ring) continue;
+                    Set<Station> cell = grid.get(key(y, x));
+                    if (cell != null) offer(best, cell, lat, lon, k);
+                }
+            }
+            // every point outside rings 0..ring is at least ring cells away in latitude or longitude
+            if (best.size() == k && (Double) best.peek()[1] <= minDistanceOutside(lat, ring)) break;
+        }
+        List<Object[]> sorted = new ArrayList<>(best);
+        sorted.sort((a, b) -> Double.compare((Double) a[1], (Double) b[1]));
+        List<Map<String, Object>> result = new ArrayList<>(sorted.size());
+        for (Object[] e : sorted) {
+            Map<String, Object> m = ((Station) e[0]).toJson();
+            m.put("distance_m", Math.round((Double) e[1] * 10.0) / 10.0);
+            result.add(m);
+        }
+        return result;
+    }
+
+    private static void offer(PriorityQueue<Object[]> best, Collection<Station> candidates, double lat, double lon, int k) {
+        for (Station s : candidates) {
+            if (!s.located()) continue;
+            double d = distance(lat, lon, s.latitude, s.longitude);
+            if (best.size() < k) {
+                best.add(new Object[]{s, d});
+            } else if (d < (Double) best.peek()[1]) {
+                best.poll();
+                best.add(new Object[]{s, d});
+            }
+        }
+    }
+
+    /** Lower bound of the distance from (lat, *) to any point outside rings 0..ring of its cell. */
+    private static double minDistanceOutside(double lat, long ring) {
+        // the point can sit anywhere in its own cell, so only ring whole cells are guaranteed
+        double deg = ring * CELL_DEG;
+        // a degree of longitude shrinks towards the poles; use the narrowest one the ring reaches
+        double maxLat = Math.min(90.0, Math.abs(lat) + deg + CELL_DEG);
+        double lonDeg = deg * Math.cos(Math.toRadians(maxLat));
+        return EARTH_RADIUS_M * Math.toRadians(Math.min(deg, lonDeg));
+    }
+
+    private static boolean inside(Station s, double minLat, double minLon, double maxLat, double maxLon) {
+        double lat = s.latitude;
+        double lon = s.longitude;
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    /** Great-circle distance in metres. */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private static long cellIndex(double deg) {
+        return (long) Math.floor(deg / CELL_DEG);
+    }
+
+    private static long key(long y, long x) {
+        return (y << 32) ^ (x & 0xffffffffL);
+    }
+
+    private static long cellOf(double lat, double lon) {
+        return key(cellIndex(lat), cellIndex(lon));
+    }
+
+    public static Map<String, Object> snapshot() {
+        int located = 0;
+        for (Station s : stations.values()) if (s.located()) located++;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("stations", stations.size());
+        m.put("located", located);
+        m.put("cells", grid.size());
+        m.put("cell_deg", CELL_DEG);
+        m.put("updates", updates.get());
+        m.put("queries", queries.get());
+        m.put("last_load", lastLoad == 0L ? null : new Timestamp(lastLoad).toString());
+        return m;
+    }
+}
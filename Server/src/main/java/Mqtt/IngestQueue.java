@@ -0,0 +1,363 @@
+package Mqtt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+import Logic.Log;
+import Utils.DataDir;
+import Utils.StageMetrics;
+
+/**
+ * Bounded hand-off queue between the Paho callback thread and the database.
+ * messageArrived only enqueues; worker threads drain the queue and run
+ * persistence and alarm checks, so a slow JDBC round trip no longer stalls
+ * every station.
+ *
+ * The queue is split into one lane per worker and a message goes to the lane
+ * picked by the hash of its topic. Stations publish on their own topic
+ * (sensors/<street_id>/<sensor_id>), so all messages of a station are handled
+ * by the same thread in arrival order and an alarm resolve (WTH002) can never
+ * overtake the create (WTH001) before it, while different stations still run
+ * in parallel. The capacity is divided evenly between the lanes.
+ *
+ * Backpressure policy applied when a lane is full (meteu.ingest.policy):
+ *  BLOCK       - the callback thread waits for a free slot. Paho stops reading
+ *                from the socket and the broker keeps the backlog (QoS 1).
+ *  DROP_OLDEST - the oldest message of the lane is discarded to make room. Counted
+ *                in "dropped"; use only when fresh data matters more than history.
+ *  SPILL       - the message is appended to a local overflow file and fed back
+ *                into its lane once the lane has drained below half its capacity.
+ *
+ * Tunables (system properties): meteu.ingest.capacity, meteu.ingest.workers
+ * (number of lanes), meteu.ingest.policy, meteu.spool.dir.
+ */
+public class IngestQueue {
+
+    public enum Policy { BLOCK, DROP_OLDEST, SPILL }
+
+    private static final long SPILL_DRAIN_MS = 500;
+
+    private static final class Envelope {
+        final String topic;
+        final byte[] payload;
+        final long enqueuedAt;
+
+        Envelope(String topic, byte[] payload) {
+            this.topic = topic;
+            this.payload = payload;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private final List<ArrayBlockingQueue<Envelope>> lanes;
+    private final int capacity;
+    private final int laneCapacity;
+    private final Policy policy;
+    private final BiConsumer<String, byte[]> handler;
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    // overflow file used by the SPILL policy
+    private final File spillFile;
+    private final Object spillLock = new Object();
+    private RandomAccessFile spill;
+    private long spillReadPos = 0L;
+    private final ScheduledExecutorService spillDrainer;
+
+    // metrics
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong spillPending = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLongArray laneProcessed;
+
+    public IngestQueue(BiConsumer<String, byte[]> handler) {
+        this(Integer.getInteger("meteu.ingest.capacity", 10_000),
+                Integer.getInteger("meteu.ingest.workers", 4),
+                Policy.valueOf(System.getProperty("meteu.ingest.policy", "BLOCK").toUpperCase()),
+                handler);
+    }
+
+    public IngestQueue(int capacity, int workerCount, Policy policy, BiConsumer<String, byte[]> handler) {
+        int laneCount = Math.max(1, workerCount);
+        this.laneCapacity = Math.max(1, (capacity + laneCount - 1) / laneCount);
+        this.capacity = laneCapacity * laneCount;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) lanes.add(new ArrayBlockingQueue<>(laneCapacity));
+        this.laneProcessed = new AtomicLongArray(laneCount);
+        this.policy = policy;
+        this.handler = handler;
+
+        File dir = DataDir.resolve("meteu.spool.dir", null);
+        this.spillFile = new File(dir, "ingest-overflow.bin");
+        if (policy == Policy.SPILL) {
+            spillDrainer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "IngestQueue-SpillDrainer");
+                t.setDaemon(true);
+                return t;
+            });
+            spillDrainer.scheduleWithFixedDelay(this::drainSpill, SPILL_DRAIN_MS, SPILL_DRAIN_MS, TimeUnit.MILLISECONDS);
+        } else {
+            spillDrainer = null;
+        }
+
+        this.workers = new Thread[laneCount];
+        for (int i = 0; i < workers.length; i++) {
+            final int lane = i;
+            Thread t = new Thread(() -> runWorker(lane), "IngestQueue-Worker-" + i);
+            t.setDaemon(true);
+            workers[i] = t;
+            t.start();
+        }
+        Log.logmqtt.info("Ingest queue started: capacity={}, workers={}, policy={}", this.capacity, workers.length, policy);
+    }
+
+    /**
+     * Hand a message over to the lane of its topic. Called from the Paho callback thread.
+     * Returns false only when the message was not accepted (DROP_OLDEST never refuses
+     * the new message, it evicts the oldest one instead).
+     */
+    public boolean submit(String topic, byte[] payload) {
+        Envelope env = new Envelope(topic, payload);
+        // keep arrival order: while older messages sit in the overflow file, new ones go there too
+        if (policy == Policy.SPILL && spillPending.get() > 0) return spill(env);
+        ArrayBlockingQueue<Envelope> queue = laneOf(topic);
+        if (queue.offer(env)) {
+            enqueued.incrementAndGet();
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(env)) {
+                    if (queue.poll() != null) dropped.incrementAndGet();
+                }
+                enqueued.incrementAndGet();
+                return true;
+            case SPILL:
+                return spill(env);
+            case BLOCK:
+            default:
+                blocked.incrementAndGet();
+                try {
+                    queue.put(env);
+                    enqueued.incrementAndGet();
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+        }
+    }
+
+    private ArrayBlockingQueue<Envelope> laneOf(String topic) {
+        int h = topic.hashCode();
+        h ^= h >>> 16;
+        return lanes.get((h & Integer.MAX_VALUE) % lanes.size());
+    }
+
+    private void runWorker(int lane) {
+        ArrayBlockingQueue<Envelope> queue = lanes.get(lane);
+        while (running || !queue.isEmpty()) {
+            Envelope env;
+            try {
+                env = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                if (!running) break;
+                continue;
+            }
+            if (env == null) continue;
+            StageMetrics.QUEUE_WAIT.record(env.enqueuedAt);
+            long waited = System.nanoTime() - env.enqueuedAt;
+            waitNanosTotal.addAndGet(waited);
+            waitNanosMax.accumulateAndGet(waited, Math::max);
+            try {
+                handler.accept(env.topic, env.payload);
+                processed.incrementAndGet();
+                laneProcessed.incrementAndGet(lane);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                Log.logmqtt.error("Error processing queued message on {}: {}", env.topic, e);
+            }
+        }
+    }
+
+    private boolean spill(Envelope env) {
+        synchronized (spillLock) {
+            try {
+                if (spill == null) openSpill();
+                spill.seek(spill.length());
+                spill.writeUTF(env.topic);
+                spill.writeInt(env.payload.length);
+                spill.write(env.payload);
+                spilled.incrementAndGet();
+                spillPending.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                Log.logmqtt.error("Could not spill message for {} to {}: {}", env.topic, spillFile, e);
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /** Open the overflow file, picking up records left behind by a previous run. */
+    private void openSpill() throws IOException {
+        spillFile.getParentFile().mkdirs();
+        spill = new RandomAccessFile(spillFile, "rw");
+        spillReadPos = 0L;
+        long pending = 0L;
+        long good = 0L;
+        try {
+            while (good < spill.length()) {
+                spill.seek(good);
+                spill.readUTF();
+                int len = spill.readInt();
+                if (len < 0 || spill.getFilePointer() + len > spill.length()) throw new IOException("torn record");
+                good = spill.getFilePointer() + len;
+                pending++;
+            }
+        } catch (IOException e) {
+            // torn tail from a crash: keep what is complete
+            Log.logmqtt.warn("Truncated ingest overflow file {} after {} records", spillFile, pending);
+            spill.setLength(good);
+        }
+        spillPending.set(pending);
+    }
+
+    /**
+     * Feed spilled messages back in file order while the lane of the next one is
+     * below half its capacity. Keeps going until the overflow file is empty,
+     * releasing the lock between rounds so the callback thread can keep spilling.
+     */
+    private void drainSpill() {
+        while (running) {
+            synchronized (spillLock) {
+                try {
+                    if (spill == null) {
+                        if (!spillFile.exists()) return;
+                        openSpill();
+                    }
+                    while (spillReadPos < spill.length()) {
+                        spill.seek(spillReadPos);
+                        String topic = spill.readUTF();
+                        ArrayBlockingQueue<Envelope> queue = laneOf(topic);
+                        if (queue.size() >= laneCapacity / 2 && !queue.isEmpty()) break;
+                        byte[] payload = new byte[spill.readInt()];
+                        spill.readFully(payload);
+                        if (!queue.offer(new Envelope(topic, payload))) break;
+                        spillReadPos = spill.getFilePointer();
+                        enqueued.incrementAndGet();
+                        spillPending.decrementAndGet();
+                    }
+                    if (spillReadPos >= spill.length()) {
+                        // fully drained: start the file over
+                        spill.setLength(0);
+                        spillReadPos = 0L;
+                        return;
+                    }
+                } catch (IOException e) {
+                    Log.logmqtt.error("Error draining ingest overflow file {}: {}", spillFile, e);
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Stop accepting work, let workers finish what is queued and close the overflow file. */
+    public void shutdown() {
+        running = false;
+        if (spillDrainer != null) spillDrainer.shutdownNow();
+        for (Thread t : workers) {
+            try {
+                t.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (spillLock) {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    Log.logmqtt.warn("Error closing ingest overflow file: {}", e);
+                }
+                spill = null;
+            }
+        }
+        if (spillPending.get() > 0) {
+            Log.logmqtt.warn("{} spilled messages left unprocessed in {}", spillPending.get(), spillFile);
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long done = processed.get() + failed.get();
+        m.put("policy", policy.name());
+        m.put("capacity", capacity);
+        m.put("workers", workers.length);
+        m.put("lane_capacity", laneCapacity);
+        int[] depths = new int[lanes.size()];
+        long[] handled = new long[lanes.size()];
+        int depth = 0;
+        for (int i = 0; i < lanes.size(); i++) {
+            depths[i] = lanes.get(i).size();
+            handled[i] = laneProcessed.get(i);
+            depth += depths[i];
+        }
+        m.put("depth", depth);
+        m.put("lane_depths", depths);
+        m.put("lane_processed", handled);
+        // max over mean: 1.0 means evenly spread, lanes.size() means everything on one lane
+        m.put("depth_skew", skew(depths));
+        m.put("load_skew", skew(handled));
+        m.put("enqueued", enqueued.get());
+        m.put("processed", processed.get());
+        m.put("failed", failed.get());
+        m.put("dropped", dropped.get());
+        m.put("blocked", blocked.get());
+        m.put("spilled", spilled.get());
+        m.put("spill_pending", spillPending.get());
+        m.put("wait_avg_ms", done == 0 ? 0.0 : waitNanosTotal.get() / (double) done / 1_000_000.0);
+        m.put("wait_max_ms", waitNanosMax.get() / 1_000_000.0);
+        return m;
+    }
+
+    private static double skew(int[] v) {
+        long[] l = new long[v.length];
+        for (int i = 0; i < v.length; i++) l[i] = v[i];
+        return skew(l);
+    }
+
+    private static double skew(long[] v) {
+        long sum = 0L;
+        long max = 0L;
+        for (long x : v) {
+            sum += x;
+            max = Math.max(max, x);
+        }
+        return sum == 0 ? 1.0 : max * v.length / (double) sum;
+    }
+}
@@ -31,11 +31,67 @@ public class MQTTBroker {
     public static String getPassword() {
         return password;
     }
+    /**
+     * Shared-subscription group (meteu.mqtt.share.group or MQTT_SHARE_GROUP), or
+     * null when the mode is off. When set, every node of the group subscribes
+     * through $share/<group>/<topic> and the broker hands each message to one of
+     * them, so ingest is split across Tomcat instances.
+     */
+    public static String getShareGroup() {
+        String group = setting("meteu.mqtt.share.group", "MQTT_SHARE_GROUP");
+        return group == null || group.isEmpty() ? null : group;
+    }
+
+    /**
+     * Identifier of this node (meteu.node.id or METEU_NODE_ID), or null when not
+     * set. In shared mode it names this node's persistent MQTT sessions, so it
+     * must stay the same across restarts; see checkConfiguration().
+     */
+    public static String getNodeId() {
+        return NodeId.VALUE;
+    }
+
+    /**
+     * Fails startup when shared mode is on without an explicit node id. Client
+     * sessions are persistent (cleanSession=false), and a node id taken from
+     * the container hostname or made up at random changes on every redeploy:
+     * the broker would keep the previous session and its $share subscription,
+     * and go on handing it a share of the messages that nobody reads.
+     */
+    public static void checkConfiguration() {
+        if (getShareGroup() != null && getNodeId() == null) {
+            throw new IllegalStateException("MQTT shared mode (group " + getShareGroup()
+                    + ") needs a stable node id: set meteu.node.id or METEU_NODE_ID on every node");
+        }
+    }
+
+    /** Topic filter to subscribe for a topic: wrapped in $share/<group>/ when shared mode is on. */
+    public static String toSubscription(String topic) {
+        String group = getShareGroup();
+        if (group == null || topic.startsWith("$share/")) return topic;
+        return "$share/" + group + "/" + topic;
+    }
+
     public static String getSubscriberClientId() {
-        return clientId + "-subscriber";
+        // nodes sharing one client id would keep taking over each other's session
+        return getShareGroup() == null ? clientId + "-subscriber" : clientId + "-subscriber-" + getNodeId();
     }
 
     public static String getPublisherClientId() {
-        return clientId + "-publisher";
+        return getShareGroup() == null ? clientId + "-publisher" : clientId + "-publisher-" + getNodeId();
+    }
+
+    private static String setting(String property, String env) {
+        String v = System.getProperty(property);
+        return v != null ? v : System.getenv(env);
+    }
+
+    private static final class NodeId {
+        static final String VALUE = resolve();
+
+        private static String resolve() {
+            String id = setting("meteu.node.id", "METEU_NODE_ID");
+            return id == null || id.isEmpty() ? null : id;
+        }
     }
 }
@@ -4,11 +4,20 @@ import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import Logic.Log;
-import Database.SensorReadingDAO;
+import Database.SensorReadingBatchWriter;
 import Database.SubscriptionDAO;
 import Logic.AlarmManager;
+import Logic.HotWindowStore;
+import Logic.ReadingConsumer;
+import Logic.ReadingDeduplicator;
+import Logic.SensorReading;
+import Logic.SensorReadingDecoder;
+import Logic.StationRegistry;
+import Utils.StageMetrics;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MQTTSuscriber implements MqttCallback {
 
@@ -17,6 +26,17 @@ public class MQTTSuscriber implements MqttCallback {
     private String clientId;
     private String username;
     private String password;
+    // pipeline stages: queue the reading for the next batched insert, keep it for live views and the station registry, then run alarm checks
+    private final List<ReadingConsumer> consumers = new CopyOnWriteArrayList<>(Arrays.<ReadingConsumer>asList(
+            (topic, reading) -> SensorReadingBatchWriter.add(reading),
+            (topic, reading) -> HotWindowStore.add(reading),
+            (topic, reading) -> StationRegistry.add(reading),
+            AlarmManager::process));
+    // messages are handed off to worker threads so the Paho callback thread never waits on the database;
+    // each topic (one per station) always lands on the same worker, keeping alarm transitions in order
+    private final IngestQueue ingestQueue = new IngestQueue(this::process);
+    // QoS 1 redeliveries and station retransmits are dropped before any consumer sees them
+    private final ReadingDeduplicator deduplicator = new ReadingDeduplicator();
 
     public MQTTSuscriber(MQTTBroker broker) {
         this.brokerUrl = broker.getBroker();
@@ -34,7 +54,12 @@ public class MQTTSuscriber implements MqttCallback {
             connOpts.setConnectionTimeout(10);
             client.setCallback(this);
             client.connect(connOpts);
-            Log.logmqtt.info("MQTT subscriber connected to {}", brokerUrl);
+            if (MQTTBroker.getShareGroup() == null) {
+                Log.logmqtt.info("MQTT subscriber connected to {}", brokerUrl);
+            } else {
+                Log.logmqtt.info("MQTT subscriber {} connected to {}, sharing subscriptions in group {}",
+                        MQTTBroker.getSubscriberClientId(), brokerUrl, MQTTBroker.getShareGroup());
+            }
 
             // subscribe persisted subscriptions at startup
             try {
@@ -58,8 +83,9 @@ public class MQTTSuscriber implements MqttCallback {
                 Log.logmqtt.warn("Client not connected, cannot subscribe to {}", topic);
                 return;
             }
-            client.subscribe(topic, 1);
-            Log.logmqtt.info("Subscribed to {}", topic);
+            String filter = MQTTBroker.toSubscription(topic);
+            client.subscribe(filter, 1);
+            Log.logmqtt.info("Subscribed to {}", filter);
         } catch (MqttException e) {
             Log.logmqtt.error("Error subscribing to topic: {}", e);
         }
@@ -71,8 +97,9 @@ public class MQTTSuscriber implements MqttCallback {
                 Log.logmqtt.warn("Client not connected, cannot unsubscribe {}", topic);
                 return;
             }
-            client.unsubscribe(topic);
-            Log.logmqtt.info("Unsubscribed from {}", topic);
+            String filter = MQTTBroker.toSubscription(topic);
+            client.unsubscribe(filter);
+            Log.logmqtt.info("Unsubscribed from {}", filter);
         } catch (MqttException e) {
             Log.logmqtt.error("Error unsubscribing from topic: {}", e);
         }
@@ -85,23 +112,63 @@ public class MQTTSuscriber implements MqttCallback {
 
     @Override
     public void messageArrived(String topic, MqttMessage message) {
-        String payload = message.toString();
-        Log.logmqtt.info("Message arrived on {} : {}", topic, payload);
+        Log.logmqtt.debug("Message arrived on {} ({} bytes)", topic, message.getPayload().length);
+        if (!ingestQueue.submit(topic, message.getPayload())) {
+            Log.logmqtt.warn("Ingest queue rejected message for topic {}", topic);
+        }
+    }
+
+    /**
+     * Decode a message once and hand the reading to every consumer in order.
+     * Runs on an ingest worker thread.
+     */
+    private void process(String topic, byte[] body) {
+        long t0 = System.nanoTime();
+        SensorReading reading;
         try {
-            // Persist incoming payload to sensor_readings table
-            boolean ok = SensorReadingDAO.insertFromTopicPayload(topic, payload);
-            if (!ok) {
-                Log.logmqtt.warn("Failed to persist sensor reading for topic {}", topic);
-            }
-            // After persisting, run alarm checks (compare values against configured ranges)
+            reading = SensorReadingDecoder.decode(body);
+            StageMetrics.DECODE.record(t0);
+        } catch (Exception e) {
+            Log.logmqtt.error("Discarding undecodable message on {}: {}", topic, e.getMessage());
+            return;
+        }
+        // recorded_at is the partitioning key and NOT NULL: undated readings get their arrival time
+        if (!reading.hasRecordedAt()) reading.setRecordedAt(System.currentTimeMillis());
+        if (!deduplicator.firstSeen(reading)) {
+            Log.logmqtt.debug("Discarding duplicate reading of {} on {}", reading.getSensorId(), topic);
+            return;
+        }
+        for (ReadingConsumer consumer : consumers) {
             try {
-                AlarmManager.process(topic, payload);
+                consumer.accept(topic, reading);
             } catch (Exception e) {
-                Log.logmqtt.error("Error running alarm manager: {}", e);
+                Log.logmqtt.error("Error in ingest stage for topic {}: {}", topic, e);
             }
-        } catch (Exception e) {
-            Log.logmqtt.error("Error handling incoming MQTT message: {}", e);
         }
+        StageMetrics.PIPELINE.record(t0);
+    }
+
+    /** Register an additional pipeline stage; it runs after the built-in ones. */
+    public void addConsumer(ReadingConsumer consumer) {
+        consumers.add(consumer);
+    }
+
+    public IngestQueue getIngestQueue() {
+        return ingestQueue;
+    }
+
+    public ReadingDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /** Disconnect from the broker and let queued messages finish. */
+    public void shutdown() {
+        try {
+            if (client != null && client.isConnected()) client.disconnect();
+        } catch (MqttException e) {
+            Log.logmqtt.warn("Error disconnecting MQTT subscriber: {}", e);
+        }
+        ingestQueue.shutdown();
     }
 
     @Override
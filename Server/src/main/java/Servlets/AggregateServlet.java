@@ -0,0 +1,159 @@
+package Servlets;
+
+import Database.AggregateDAO;
+import Database.DatabaseUnavailableException;
+import Database.SensorReadingDAO;
+import Logic.Log;
+import Logic.SensorReading;
+import com.google.gson.Gson;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time-bucket aggregates of one measurement over raw readings:
+ *
+ *   GET /api/readings/aggregate?param=temp&interval=1h&start=..&end=..&group_by=sensor_id&percentiles=50,95
+ *
+ * start/end use yyyy-MM-ddHH:mm:ss (default: the last 24 hours); interval is a
+ * number followed by s, m, h or d (default 1h). group_by is sensor_id, district
+ * or neighborhood; sensor_id, district and neighborhood also filter. Each
+ * bucket carries count, min, max, avg and the requested percentiles.
+ */
+@WebServlet("/api/readings/aggregate")
+public class AggregateServlet extends HttpServlet {
+
+    private static final int MAX_BUCKETS = 5000;
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            String param = request.getParameter("param");
+            if (param == null || SensorReading.indexOf(param) < 0) {
+                badRequest(response, out, "param debe ser una medida válida");
+                return;
+            }
+
+            long end;
+            long start;
+            try {
+                String endS = request.getParameter("end");
+                String startS = request.getParameter("start");
+                end = endS != null && !endS.isEmpty() ? SensorReadingDAO.parseParamTimestampStrict(endS).getTime() : System.currentTimeMillis();
+                start = startS != null && !startS.isEmpty() ? SensorReadingDAO.parseParamTimestampStrict(startS).getTime() : end - 24 * 3_600_000L;
+            } catch (IllegalArgumentException iae) {
+                badRequest(response, out, "Formato de fecha inválido. Use yyyy-MM-ddHH:mm:ss");
+                return;
+            }
+            if (start > end) {
+                badRequest(response, out, "start debe ser anterior a end");
+                return;
+            }
+
+            String interval = request.getParameter("interval");
+            if (interval == null || interval.isEmpty()) interval = "1h";
+            long bucketMs = parseInterval(interval);
+            if (bucketMs <= 0) {
+                badRequest(response, out, "interval debe ser un número seguido de s, m, h o d");
+                return;
+            }
+            if ((end - start) / bucketMs >= MAX_BUCKETS) {
+                badRequest(response, out, "Demasiados intervalos, use un interval mayor (máximo " + MAX_BUCKETS + ")");
+                return;
+            }
+
+            String groupBy = request.getParameter("group_by");
+            if (groupBy != null && groupBy.isEmpty()) groupBy = null;
+            if (groupBy != null && !AggregateDAO.GROUP_COLUMNS.contains(groupBy)) {
+                badRequest(response, out, "group_by debe ser sensor_id, district o neighborhood");
+                return;
+            }
+
+            double[] percentiles = new double[0];
+            String pS = request.getParameter("percentiles");
+            if (pS != null && !pS.isEmpty()) {
+                String[] parts = pS.split(",");
+                percentiles = new double[parts.length];
+                try {
+                    for (int i = 0; i < parts.length; i++) {
+                        percentiles[i] = Double.parseDouble(parts[i].trim());
+                        if (!(percentiles[i] >= 0 && percentiles[i] <= 100)) throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException nfe) {
+                    badRequest(response, out, "percentiles debe ser una lista de números entre 0 y 100");
+                    return;
+                }
+            }
+
+            AggregateDAO.Request r = new AggregateDAO.Request(param, start, end, bucketMs);
+            r.setGroupBy(groupBy);
+            r.setSensorId(emptyToNull(request.getParameter("sensor_id")));
+            r.setDistrict(emptyToNull(request.getParameter("district")));
+            r.setNeighborhood(emptyToNull(request.getParameter("neighborhood")));
+            r.setPercentiles(percentiles);
+            List<Map<String, Object>> buckets = AggregateDAO.aggregate(r);
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("param", param);
+            body.put("interval", interval);
+            if (groupBy != null) body.put("group_by", groupBy);
+            body.put("start", SensorReadingDAO.formatTimestamp(new Timestamp(start)));
+            body.put("end", SensorReadingDAO.formatTimestamp(new Timestamp(end)));
+            body.put("buckets", buckets);
+            out.println(new Gson().toJson(body));
+        } catch (DatabaseUnavailableException e) {
+            Log.log.warn("Aggregate query unavailable: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            out.println("{\"error\":\"database unavailable\"}");
+        } catch (IllegalArgumentException e) {
+            Log.log.warn("Bad request in aggregate query: {}", e.getMessage());
+            badRequest(response, out, e.getMessage());
+        } catch (Exception e) {
+            Log.log.error("Error in AggregateServlet: {}", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{\"error\":\"internal error\"}");
+        } finally {
+            out.close();
+        }
+    }
+
+    /** "90s", "15m", "1h", "1d" in ms; 0 if malformed. */
+    private static long parseInterval(String s) {
+        if (s.length() < 2) return 0L;
+        long unit;
+        switch (s.charAt(s.length() - 1)) {
+            case 's': unit = 1000L; break;
+            case 'm': unit = 60_000L; break;
+            case 'h': unit = 3_600_000L; break;
+            case 'd': unit = 86_400_000L; break;
+            default: return 0L;
+        }
+        try {
+            long n = Long.parseLong(s.substring(0, s.length() - 1));
+            return n > 0 && n <= 366 * 86_400_000L / unit ? n * unit : 0L;
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    private static void badRequest(HttpServletResponse response, PrintWriter out, String message) {
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        out.println("{\"error\":\"" + message + "\"}");
+    }
+}
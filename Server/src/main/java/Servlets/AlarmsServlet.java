@@ -35,9 +35,10 @@ public class AlarmsServlet extends HttpServlet {
         int limit = 200;
         try { if (limitParam != null) limit = Integer.parseInt(limitParam); } catch (Exception ignored) {}
 
+        Database.ConectionDDBB conector = new Database.ConectionDDBB();
+        Connection con = null;
         try {
-            Database.ConectionDDBB conector = new Database.ConectionDDBB();
-            Connection con = conector.obtainConnection(true);
+            con = conector.obtainConnection(true);
 
             StringBuilder sql = new StringBuilder("SELECT id, sensor_id, street_id, parameter, triggered_value, triggered_at, resolved_at, resolved_value, active FROM sensor_alarms");
             List<Object> params = new ArrayList<>();
@@ -91,10 +92,11 @@ public class AlarmsServlet extends HttpServlet {
                 row.put("active", rs.getInt("active") == 1);
                 results.add(row);
             }
-
-            conector.closeConnection(con);
         } catch (Exception e) {
-            Log.log.error("Error listing alarms: {}", e);
+            if (conector.failed(e)) Log.log.warn("Alarms unavailable: {}", e.getMessage());
+            else Log.log.error("Error listing alarms: {}", e);
+        } finally {
+            conector.closeConnection(con);
         }
 
         out.println(new Gson().toJson(results));
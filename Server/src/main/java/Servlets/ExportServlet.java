@@ -0,0 +1,120 @@
+package Servlets;
+
+import Database.DatabaseUnavailableException;
+import Database.QueryParams;
+import Database.SensorReadingDAO;
+import Logic.Log;
+import Logic.ReadingExporter;
+import Logic.ReadingExporter.Format;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bulk export of sensor_readings for offline analysis:
+ *
+ *   GET /admin/export?start=..&end=..&sensor_id=..&street_id=..&filter=..&op=..&value=..&format=csv|ndjson&gzip=1
+ *
+ * start/end use yyyy-MM-ddHH:mm:ss. Rows come oldest first and are streamed
+ * as they are read; gzip (on unless gzip=0) compresses on the fly. The export
+ * runs asynchronously on ReadingExporter's executor; when all its workers and
+ * queue slots are taken the request gets 429.
+ */
+@WebServlet(urlPatterns = "/admin/export", asyncSupported = true)
+public class ExportServlet extends HttpServlet {
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        QueryParams params = new QueryParams();
+        try {
+            String startS = request.getParameter("start");
+            String endS = request.getParameter("end");
+            if (startS != null && !startS.isEmpty()) params.setStart(SensorReadingDAO.parseParamTimestampStrict(startS));
+            if (endS != null && !endS.isEmpty()) params.setEnd(SensorReadingDAO.parseParamTimestampStrict(endS));
+        } catch (IllegalArgumentException iae) {
+            error(response, HttpServletResponse.SC_BAD_REQUEST, "Formato de fecha inválido. Use yyyy-MM-ddHH:mm:ss");
+            return;
+        }
+        params.setSensorId(request.getParameter("sensor_id"));
+        params.setStreetId(request.getParameter("street_id"));
+        params.setFilter(request.getParameter("filter"));
+        params.setOperator(request.getParameter("op"));
+        params.setValue(request.getParameter("value"));
+        params.setSortBy("recorded_at");
+        params.setOrder("asc");
+        params.setLimit(0);
+
+        Format format;
+        try {
+            String f = request.getParameter("format");
+            format = f == null || f.isEmpty() ? Format.CSV : Format.valueOf(f.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            error(response, HttpServletResponse.SC_BAD_REQUEST, "format debe ser csv o ndjson");
+            return;
+        }
+        boolean gzip = !"0".equals(request.getParameter("gzip")) && !"false".equalsIgnoreCase(request.getParameter("gzip"));
+        String description = request.getQueryString() == null ? "" : request.getQueryString();
+
+        AsyncContext ctx = request.startAsync();
+        ctx.setTimeout(0);
+        try {
+            ReadingExporter.submit(() -> {
+                try {
+                    run(params, format, gzip, description, (HttpServletResponse) ctx.getResponse());
+                } finally {
+                    ctx.complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.log.warn("Export rejected, all export workers busy");
+            error(response, 429, "too many exports running", "30");
+            ctx.complete();
+        }
+    }
+
+    private static void run(QueryParams params, Format format, boolean gzip, String description, HttpServletResponse response) {
+        String name = "readings-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "." + format.getExtension();
+        response.setContentType(gzip ? "application/gzip" : format.getContentType() + ";charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + name + (gzip ? ".gz" : "") + "\"");
+        try {
+            ReadingExporter.Progress progress = new ReadingExporter.Progress(description);
+            ReadingExporter.export(params, format, gzip, response.getOutputStream(), progress);
+        } catch (DatabaseUnavailableException e) {
+            Log.log.warn("Export unavailable: {}", e.getMessage());
+            error(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "database unavailable", "5");
+        } catch (IllegalArgumentException e) {
+            error(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            // mid-stream: the status line is gone, the truncated file tells the client
+            Log.log.warn("Export aborted: {}", e.getMessage());
+        } catch (Exception e) {
+            Log.log.error("Error in ExportServlet: {}", e);
+            error(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "internal error");
+        }
+    }
+
+    private static void error(HttpServletResponse response, int status, String message) {
+        error(response, status, message, null);
+    }
+
+    // reset() clears every header, so Retry-After is only set after it
+    private static void error(HttpServletResponse response, int status, String message, String retryAfter) {
+        if (response.isCommitted()) return;
+        try {
+            response.reset();
+            response.setStatus(status);
+            if (retryAfter != null) response.setHeader("Retry-After", retryAfter);
+            response.setContentType("application/json;charset=UTF-8");
+            response.getWriter().println("{\"error\":\"" + message + "\"}");
+        } catch (Exception e) {
+            Log.log.warn("Could not send export error: {}", e.getMessage());
+        }
+    }
+}
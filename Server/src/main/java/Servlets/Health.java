@@ -4,7 +4,6 @@ import com.google.gson.Gson;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Connection;
-import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,8 +30,8 @@ public class Health extends HttpServlet {
         PrintWriter out = response.getWriter();
         Map<String, Object> result = new HashMap<>();
         Connection con = null;
+        ConectionDDBB conector = new ConectionDDBB();
         try {
-            ConectionDDBB conector = new ConectionDDBB();
             con = conector.obtainConnection(true);
             if (con != null && !con.isClosed()) {
                 result.put("status", "ok");
@@ -43,12 +42,11 @@ public class Health extends HttpServlet {
             }
         } catch (Exception e) {
             Log.log.error("Health check error: " + e);
+            if (conector.failed(e)) response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             result.put("status", "error");
             result.put("message", e.toString());
         } finally {
-            try {
-                if (con != null) con.close();
-            } catch (SQLException ignore) {}
+            conector.closeConnection(con);
             out.println(new Gson().toJson(result));
             out.close();
         }
@@ -0,0 +1,59 @@
+package Servlets;
+
+import Database.DatabaseUnavailableException;
+import Logic.HotWindowStore;
+import Logic.Log;
+import com.google.gson.Gson;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Recent history of one station for live charts:
+ *
+ *   GET /api/live/history?sensor_id=..&minutes=15
+ *
+ * One array per field, oldest first, from the in-memory hot window (or the
+ * database while the hot window is not serving).
+ */
+@WebServlet("/api/live/history")
+public class LiveHistoryServlet extends HttpServlet {
+
+    private static final Gson gson = new Gson();
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            String sensorId = request.getParameter("sensor_id");
+            if (sensorId == null || sensorId.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"sensor_id es obligatorio\"}");
+                return;
+            }
+            long maxMinutes = HotWindowStore.getWindowMs() / 60_000L;
+            long minutes = 15;
+            try { if (request.getParameter("minutes") != null) minutes = Long.parseLong(request.getParameter("minutes")); } catch (Exception ignored) {}
+            if (minutes <= 0) minutes = 15; if (minutes > maxMinutes) minutes = maxMinutes;
+
+            out.println(gson.toJson(HotWindowStore.history(sensorId, minutes * 60_000L)));
+        } catch (DatabaseUnavailableException e) {
+            Log.log.warn("Live history unavailable: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            out.println("{\"error\":\"database unavailable\"}");
+        } catch (Exception e) {
+            Log.log.error("Error in LiveHistoryServlet: {}", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{\"error\":\"internal error\"}");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Servlets;
+
+import Database.ConectionDDBB;
+import Database.PartitionManager;
+import Database.ReadingSpool;
+import Database.RetentionEngine;
+import Database.SensorReadingBatchWriter;
+import Database.StationCatalog;
+import Logic.HotWindowStore;
+import Logic.QueryCache;
+import Logic.ReadingExporter;
+import Logic.StationRegistry;
+import Mqtt.MQTTSuscriber;
+import Utils.StageMetrics;
+import com.google.gson.Gson;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admin endpoint exposing runtime metrics of the ingest pipeline as JSON.
+ * GET only reads them; POST clears the stage latency histograms.
+ */
+@WebServlet("/admin/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    private static final Gson gson = new Gson();
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("stages", StageMetrics.snapshot());
+
+        Object s = getServletContext().getAttribute("mqttSubscriber");
+        if (s instanceof MQTTSuscriber) {
+            resp.put("ingest_queue", ((MQTTSuscriber) s).getIngestQueue().snapshot());
+            resp.put("dedup", ((MQTTSuscriber) s).getDeduplicator().snapshot());
+        }
+        resp.put("batch_writer", SensorReadingBatchWriter.snapshot());
+        resp.put("hot_window", HotWindowStore.snapshot());
+        resp.put("query_cache", QueryCache.snapshot());
+        resp.put("stations", StationRegistry.snapshot());
+        resp.put("station_catalog", StationCatalog.snapshot());
+        resp.put("db_pool", ConectionDDBB.snapshot());
+        resp.put("partitions", PartitionManager.snapshot());
+        resp.put("retention", RetentionEngine.snapshot());
+        resp.put("exports", ReadingExporter.snapshot());
+        resp.put("reading_spool", ReadingSpool.snapshot());
+
+        out.println(gson.toJson(resp));
+        out.close();
+    }
+
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        StageMetrics.reset();
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,59 @@
+package Servlets;
+
+import Logic.Log;
+import Logic.StationRegistry;
+import com.google.gson.Gson;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * The k stations closest to a point, nearest first, each with its distance_m:
+ *
+ *   GET /api/stations/nearest?lat=..&lon=..&k=5
+ */
+@WebServlet("/api/stations/nearest")
+public class NearestStationsServlet extends HttpServlet {
+
+    private static final int DEFAULT_K = 5;
+    private static final int MAX_K = 100;
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            double lat;
+            double lon;
+            try {
+                lat = Double.parseDouble(request.getParameter("lat"));
+                lon = Double.parseDouble(request.getParameter("lon"));
+            } catch (NullPointerException | NumberFormatException e) {
+                lat = Double.NaN;
+                lon = Double.NaN;
+            }
+            if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180)) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"lat y lon válidos son obligatorios\"}");
+                return;
+            }
+
+            int k = DEFAULT_K;
+            try { if (request.getParameter("k") != null) k = Integer.parseInt(request.getParameter("k")); } catch (Exception ignored) {}
+            if (k <= 0) k = DEFAULT_K; if (k > MAX_K) k = MAX_K;
+
+            out.println(new Gson().toJson(StationRegistry.nearest(lat, lon, k)));
+        } catch (Exception e) {
+            Log.log.error("Error in NearestStationsServlet: {}", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{\"error\":\"internal error\"}");
+        } finally {
+            out.close();
+        }
+    }
+}
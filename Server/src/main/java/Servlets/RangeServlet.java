@@ -27,10 +27,11 @@ public class RangeServlet extends HttpServlet {
         response.setContentType("application/json;charset=UTF-8");
         PrintWriter out = response.getWriter();
         List<Map<String,Object>> results = new ArrayList<>();
+        Database.ConectionDDBB conector = new Database.ConectionDDBB();
+        Connection con = null;
         try {
             // read all ranges
-            Database.ConectionDDBB conector = new Database.ConectionDDBB();
-            Connection con = conector.obtainConnection(true);
+            con = conector.obtainConnection(true);
             PreparedStatement ps = con.prepareStatement("SELECT parameter, min_value, max_value FROM parameter_ranges");
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -42,9 +43,11 @@ public class RangeServlet extends HttpServlet {
                 m.put("max", max);
                 results.add(m);
             }
-            conector.closeConnection(con);
         } catch (Exception e) {
-            Log.log.error("Error listing ranges: {}", e);
+            if (conector.failed(e)) Log.log.warn("Ranges unavailable: {}", e.getMessage());
+            else Log.log.error("Error listing ranges: {}", e);
+        } finally {
+            conector.closeConnection(con);
         }
         out.println(new Gson().toJson(results));
         out.close();
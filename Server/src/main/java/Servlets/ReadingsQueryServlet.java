@@ -1,27 +1,47 @@
 package Servlets;
 
+import Database.DatabaseUnavailableException;
 import Database.QueryParams;
 import Database.SensorReadingDAO;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import Logic.Log;
+import Logic.QueryCache;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
-import java.util.List;
-import java.util.Map;
 
 @WebServlet("/api/readings/query")
 public class ReadingsQueryServlet extends HttpServlet {
 
+    /** Largest points=N of a downsampled series. */
+    static final int MAX_POINTS = 10000;
+
+    /** points=N, or 0 if it is not a number in [3, MAX_POINTS]. */
+    static int parsePoints(String s) {
+        try {
+            int n = Integer.parseInt(s);
+            return n >= 3 && n <= MAX_POINTS ? n : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json;charset=UTF-8");
-        PrintWriter out = response.getWriter();
+        // streamed bodies are written to `body` directly: a PrintWriter would swallow
+        // the IOException of a client that went away and the query would run on
+        Writer body = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+        PrintWriter out = new PrintWriter(body);
 
         try {
             String startS = request.getParameter("start");
@@ -33,6 +53,9 @@ public class ReadingsQueryServlet extends HttpServlet {
             String order = request.getParameter("order");
             String limitS = request.getParameter("limit");
             String offsetS = request.getParameter("offset");
+            String cursor = request.getParameter("cursor");
+            // stream=1 writes every matching row (or `limit` rows) as they come from the database
+            boolean stream = "1".equals(request.getParameter("stream")) || "true".equalsIgnoreCase(request.getParameter("stream"));
 
             QueryParams params = new QueryParams();
 
@@ -50,19 +73,77 @@ public class ReadingsQueryServlet extends HttpServlet {
             if (operator != null) params.setOperator(operator);
             if (sortBy != null) params.setSortBy(sortBy);
             if (order != null) params.setOrder(order);
+            params.setSensorId(request.getParameter("sensor_id"));
+            params.setStreetId(request.getParameter("street_id"));
+
+            // points=N&param=temp: at most N rows of one measurement, downsampled for charts
+            String pointsS = request.getParameter("points");
+            if (pointsS != null && !pointsS.isEmpty()) {
+                int points = parsePoints(pointsS);
+                String param = request.getParameter("param");
+                // one sensor's series: several sensors interleaved in time have no shape to keep
+                String sensorId = params.getSensorId();
+                if (points < 3 || param == null || param.isEmpty() || sensorId == null || sensorId.isEmpty()) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.println("{\"error\":\"points (3-" + MAX_POINTS + "), param y sensor_id son obligatorios para reducir la serie\"}");
+                    return;
+                }
+                JsonWriter json = new JsonWriter(body);
+                long n = SensorReadingDAO.downsampleReadings(params, param, points, json);
+                json.flush();
+                Log.log.debug("Downsampled {} sensor readings to at most {} points", n, points);
+                return;
+            }
+
+            if (stream) {
+                int limit = 0;
+                try { if (limitS != null) limit = Integer.parseInt(limitS); } catch (Exception ignored) {}
+                params.setLimit(Math.max(0, limit));
+                params.setCursor(cursor);
+                JsonWriter json = new JsonWriter(body);
+                // like Gson.toJson() of the row maps: absent values are left out
+                json.setSerializeNulls(false);
+                long n = SensorReadingDAO.streamReadings(params, json);
+                json.flush();
+                Log.log.debug("Streamed {} sensor readings", n);
+                return;
+            }
 
             int limit = 200;
             try { if (limitS != null) limit = Integer.parseInt(limitS); } catch (Exception ignored) {}
-            if (limit <= 0) limit = 200; if (limit > 200) limit = 200;
+            if (limit <= 0) limit = 200; if (limit > QueryParams.MAX_LIMIT) limit = QueryParams.MAX_LIMIT;
             params.setLimit(limit);
 
             int offset = 0;
             try { if (offsetS != null) offset = Integer.parseInt(offsetS); } catch (Exception ignored) {}
             if (offset < 0) offset = 0;
             params.setOffset(offset);
+            // the cursor of the next page comes back in X-Next-Cursor; it takes precedence over offset
+            params.setCursor(cursor);
 
-            List<Map<String, Object>> rows = SensorReadingDAO.queryReadings(params);
-            out.println(new Gson().toJson(rows));
+            // repeated pages are answered from the cache (see QueryCache for when they go stale)
+            QueryCache.Entry cached = QueryCache.isEnabled() ? QueryCache.get(params) : null;
+            if (cached != null) {
+                response.setHeader("X-Cache", "HIT");
+                if (cached.getNextCursor() != null) response.setHeader("X-Next-Cursor", cached.getNextCursor());
+                out.println(cached.getJson());
+                return;
+            }
+            QueryCache.Stamp stamp = QueryCache.stamp();
+            SensorReadingDAO.Page page = SensorReadingDAO.queryPage(params);
+            String json = new Gson().toJson(page.getRows());
+            QueryCache.put(params, stamp, json, page.getNextCursor());
+            response.setHeader("X-Cache", "MISS");
+            if (page.getNextCursor() != null) response.setHeader("X-Next-Cursor", page.getNextCursor());
+            out.println(json);
+        } catch (IOException e) {
+            // mid-stream: the status line is gone, the truncated body tells the client
+            Log.log.warn("Readings stream aborted: {}", e.getMessage());
+        } catch (DatabaseUnavailableException e) {
+            Log.log.warn("Readings query unavailable: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            out.println("{\"error\":\"database unavailable\"}");
         } catch (IllegalArgumentException e) {
             Log.log.warn("Bad request in readings query: {}", e.getMessage());
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -1,7 +1,10 @@
 package Servlets;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import Database.ConectionDDBB;
+import Database.PageCursor;
+import Database.QueryParams;
 import Logic.Log;
 
 import jakarta.servlet.ServletException;
@@ -11,7 +14,10 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -26,18 +32,47 @@ public class SensorReadingsServlet extends HttpServlet {
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json;charset=UTF-8");
-        PrintWriter out = response.getWriter();
+        // streamed bodies are written to `body` directly: a PrintWriter would swallow
+        // the IOException of a client that went away and the query would run on
+        Writer body = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+        PrintWriter out = new PrintWriter(body);
 
         String sensorId = request.getParameter("sensor_id");
         String streetId = request.getParameter("street_id");
         String start = request.getParameter("start");
         String end = request.getParameter("end");
         String limitStr = request.getParameter("limit");
-        int limit = 100;
+        String cursorStr = request.getParameter("cursor");
+        // stream=1 writes every matching row (or `limit` rows) as they come from the database
+        boolean stream = "1".equals(request.getParameter("stream")) || "true".equalsIgnoreCase(request.getParameter("stream"));
+        int limit = stream ? 0 : 100;
         try { if (limitStr != null) limit = Integer.parseInt(limitStr); } catch (Exception e) {}
+        if (stream) limit = Math.max(0, limit);
+        else if (limit <= 0) limit = 100; else if (limit > QueryParams.MAX_LIMIT) limit = QueryParams.MAX_LIMIT;
+
+        PageCursor cursor = null;
+        if (cursorStr != null && !cursorStr.isEmpty()) {
+            try {
+                cursor = PageCursor.decode(cursorStr, "recorded_at", true);
+            } catch (IllegalArgumentException iae) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"" + iae.getMessage() + "\"}");
+                out.close();
+                return;
+            }
+        }
+
+        // points=N&param=temp: at most N rows of one measurement, downsampled for charts
+        String pointsStr = request.getParameter("points");
+        if (pointsStr != null && !pointsStr.isEmpty()) {
+            downsample(request, response, body, out, pointsStr);
+            return;
+        }
 
         ConectionDDBB conector = new ConectionDDBB();
         Connection con = null;
+        PreparedStatement ps = null;
+        JsonWriter json = null;
         try {
             con = conector.obtainConnection(true);
             StringBuilder sql = new StringBuilder("SELECT * FROM sensor_readings WHERE 1=1");
@@ -65,16 +100,42 @@ public class SensorReadingsServlet extends HttpServlet {
                     return;
                 }
             }
-            sql.append(" ORDER BY recorded_at DESC LIMIT ").append(limit);
+            // newest first, paged by (recorded_at, id); the next page's cursor comes back in X-Next-Cursor
+            if (cursor != null) cursor.appendSeek(sql, params);
+            sql.append(PageCursor.orderBy("recorded_at", true));
+            if (stream) {
+                if (limit > 0) sql.append(" LIMIT ").append(limit);
+            } else {
+                sql.append(" LIMIT ").append(limit + 1);
+            }
 
-            PreparedStatement ps = con.prepareStatement(sql.toString());
+            ps = con.prepareStatement(sql.toString());
             for (int i = 0; i < params.size(); i++) ps.setObject(i+1, params.get(i));
 
+            if (stream) {
+                Database.SensorReadingDAO.streamResults(ps);
+                ResultSet rs = ps.executeQuery();
+                json = new JsonWriter(body);
+                json.setSerializeNulls(false);
+                json.beginArray();
+                json.flush();
+                Database.SensorReadingDAO.writeRows(rs, json);
+                json.endArray();
+                json.flush();
+                return;
+            }
+
             ResultSet rs = ps.executeQuery();
             ResultSetMetaData md = rs.getMetaData();
             int cols = md.getColumnCount();
+            java.sql.Timestamp last = null;
+            long lastId = 0L;
             List<Map<String, Object>> rows = new ArrayList<>();
             while (rs.next()) {
+                if (rows.size() == limit) {
+                    response.setHeader("X-Next-Cursor", PageCursor.after("recorded_at", true, last, lastId).encode());
+                    break;
+                }
                 Map<String, Object> row = new HashMap<>();
                 for (int c = 1; c <= cols; c++) {
                     Object v = rs.getObject(c);
@@ -86,9 +147,25 @@ public class SensorReadingsServlet extends HttpServlet {
                     }
                 }
                 rows.add(row);
+                last = rs.getTimestamp("recorded_at");
+                lastId = rs.getLong("id");
             }
             out.println(new Gson().toJson(rows));
         } catch (Exception e) {
+            if (json != null) {
+                // mid-stream: the status line is gone, the truncated body tells the client
+                conector.failed(e);
+                Database.SensorReadingDAO.cancel(ps);
+                Log.log.warn("sensor_readings stream aborted: {}", e.getMessage());
+                return;
+            }
+            if (conector.failed(e)) {
+                Log.log.warn("sensor_readings unavailable: {}", e.getMessage());
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "5");
+                out.println("{\"error\":\"database unavailable\"}");
+                return;
+            }
             Log.log.error("Error querying sensor_readings: {}", e);
             out.println("[]");
         } finally {
@@ -96,4 +173,46 @@ public class SensorReadingsServlet extends HttpServlet {
             out.close();
         }
     }
+
+    private static void downsample(HttpServletRequest request, HttpServletResponse response, Writer body, PrintWriter out, String pointsStr) {
+        try {
+            int points = ReadingsQueryServlet.parsePoints(pointsStr);
+            String param = request.getParameter("param");
+            String sensorId = request.getParameter("sensor_id");
+            if (points < 3 || param == null || param.isEmpty() || sensorId == null || sensorId.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"points (3-" + ReadingsQueryServlet.MAX_POINTS + "), param y sensor_id son obligatorios para reducir la serie\"}");
+                return;
+            }
+            QueryParams params = new QueryParams();
+            params.setSensorId(sensorId);
+            params.setStreetId(request.getParameter("street_id"));
+            try {
+                String start = request.getParameter("start");
+                String end = request.getParameter("end");
+                if (start != null && !start.isEmpty()) params.setStart(Database.SensorReadingDAO.parseParamTimestampStrict(start));
+                if (end != null && !end.isEmpty()) params.setEnd(Database.SensorReadingDAO.parseParamTimestampStrict(end));
+            } catch (IllegalArgumentException iae) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"Formato de fecha inválido. Use yyyy-MM-ddHH:mm:ss\"}");
+                return;
+            }
+            JsonWriter json = new JsonWriter(body);
+            Database.SensorReadingDAO.downsampleReadings(params, param, points, json);
+            json.flush();
+        } catch (Database.DatabaseUnavailableException e) {
+            Log.log.warn("sensor_readings unavailable: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            out.println("{\"error\":\"database unavailable\"}");
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.println("{\"error\":\"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            // mid-stream: the status line is gone, the truncated body tells the client
+            Log.log.warn("sensor_readings downsample aborted: {}", e.getMessage());
+        } finally {
+            out.close();
+        }
+    }
 }
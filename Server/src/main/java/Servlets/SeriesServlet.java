@@ -0,0 +1,110 @@
+package Servlets;
+
+import Database.DatabaseUnavailableException;
+import Database.RollupDAO;
+import Database.RollupDAO.Resolution;
+import Database.SensorReadingDAO;
+import Logic.Log;
+import Logic.SensorReading;
+import com.google.gson.Gson;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time series of one sensor parameter from the rollup tables:
+ *
+ *   GET /api/readings/series?sensor_id=..&param=temp&start=..&end=..&points=300
+ *
+ * start/end use yyyy-MM-ddHH:mm:ss (default: the last 24 hours). The finest of
+ * 1m, 1h and 1d that fits the range in at most `points` buckets is used unless
+ * `resolution` forces one. Each point carries count, min, max, avg and last.
+ */
+@WebServlet("/api/readings/series")
+public class SeriesServlet extends HttpServlet {
+
+    private static final int DEFAULT_POINTS = 300;
+    private static final int MAX_POINTS = 5000;
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            String sensorId = request.getParameter("sensor_id");
+            String param = request.getParameter("param");
+            if (sensorId == null || sensorId.isEmpty() || param == null || SensorReading.indexOf(param) < 0) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"sensor_id y param válidos son obligatorios\"}");
+                return;
+            }
+
+            long end;
+            long start;
+            try {
+                String endS = request.getParameter("end");
+                String startS = request.getParameter("start");
+                end = endS != null && !endS.isEmpty() ? SensorReadingDAO.parseParamTimestampStrict(endS).getTime() : System.currentTimeMillis();
+                start = startS != null && !startS.isEmpty() ? SensorReadingDAO.parseParamTimestampStrict(startS).getTime() : end - 24 * 3_600_000L;
+            } catch (IllegalArgumentException iae) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"Formato de fecha inválido. Use yyyy-MM-ddHH:mm:ss\"}");
+                return;
+            }
+            if (start > end) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.println("{\"error\":\"start debe ser anterior a end\"}");
+                return;
+            }
+
+            int points = DEFAULT_POINTS;
+            try { if (request.getParameter("points") != null) points = Integer.parseInt(request.getParameter("points")); } catch (Exception ignored) {}
+            if (points <= 0) points = DEFAULT_POINTS; if (points > MAX_POINTS) points = MAX_POINTS;
+
+            Resolution resolution = Resolution.forBudget(start, end, points);
+            String resS = request.getParameter("resolution");
+            if (resS != null && !resS.isEmpty()) {
+                resolution = Resolution.fromLabel(resS);
+                if (resolution == null) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.println("{\"error\":\"resolution debe ser 1m, 1h o 1d\"}");
+                    return;
+                }
+            }
+
+            List<RollupDAO.Point> series = RollupDAO.series(sensorId, param, start, end, resolution);
+            List<Map<String, Object>> list = new ArrayList<>(series.size());
+            for (RollupDAO.Point p : series) list.add(RollupDAO.toJson(p));
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("sensor_id", sensorId);
+            body.put("param", param);
+            body.put("resolution", resolution.getLabel());
+            body.put("start", SensorReadingDAO.formatTimestamp(new Timestamp(start)));
+            body.put("end", SensorReadingDAO.formatTimestamp(new Timestamp(end)));
+            body.put("points", list);
+            out.println(new Gson().toJson(body));
+        } catch (DatabaseUnavailableException e) {
+            Log.log.warn("Series query unavailable: {}", e.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            out.println("{\"error\":\"database unavailable\"}");
+        } catch (Exception e) {
+            Log.log.error("Error in SeriesServlet: {}", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{\"error\":\"internal error\"}");
+        } finally {
+            out.close();
+        }
+    }
+}
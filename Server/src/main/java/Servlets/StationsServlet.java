@@ -0,0 +1,66 @@
+package Servlets;
+
+import Logic.Log;
+import Logic.StationRegistry;
+import com.google.gson.Gson;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Stations inside a map viewport, with their location and last values, from
+ * the in-memory StationRegistry:
+ *
+ *   GET /api/stations?min_lat=..&min_lon=..&max_lat=..&max_lon=..
+ *
+ * Without a box every located station is returned.
+ */
+@WebServlet("/api/stations")
+public class StationsServlet extends HttpServlet {
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        try {
+            String minLatS = request.getParameter("min_lat");
+            String minLonS = request.getParameter("min_lon");
+            String maxLatS = request.getParameter("max_lat");
+            String maxLonS = request.getParameter("max_lon");
+            double minLat = -90, minLon = -180, maxLat = 90, maxLon = 180;
+            if (minLatS != null || minLonS != null || maxLatS != null || maxLonS != null) {
+                try {
+                    minLat = Double.parseDouble(minLatS);
+                    minLon = Double.parseDouble(minLonS);
+                    maxLat = Double.parseDouble(maxLatS);
+                    maxLon = Double.parseDouble(maxLonS);
+                } catch (NullPointerException | NumberFormatException e) {
+                    minLat = Double.NaN;
+                }
+                if (!(Double.isFinite(minLat) && Double.isFinite(minLon) && Double.isFinite(maxLat) && Double.isFinite(maxLon))
+                        || !(minLat <= maxLat && minLon <= maxLon)) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.println("{\"error\":\"min_lat, min_lon, max_lat y max_lon deben ser números con min <= max\"}");
+                    return;
+                }
+                // a viewport zoomed out past the poles or the antimeridian covers the whole range
+                minLat = Math.max(-90, minLat);
+                maxLat = Math.min(90, maxLat);
+                minLon = Math.max(-180, minLon);
+                maxLon = Math.min(180, maxLon);
+            }
+            out.println(new Gson().toJson(StationRegistry.within(minLat, minLon, maxLat, maxLon)));
+        } catch (Exception e) {
+            Log.log.error("Error in StationsServlet: {}", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{\"error\":\"internal error\"}");
+        } finally {
+            out.close();
+        }
+    }
+}
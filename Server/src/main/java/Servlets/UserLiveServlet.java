@@ -1,6 +1,7 @@
 package Servlets;
 
 import Database.ConectionDDBB;
+import Logic.HotWindowStore;
 import Logic.Log;
 import com.google.gson.Gson;
 
@@ -34,6 +35,12 @@ public class UserLiveServlet extends HttpServlet {
         response.setContentType("application/json;charset=UTF-8");
         PrintWriter out = response.getWriter();
 
+        if (HotWindowStore.isServing()) {
+            out.println(gson.toJson(HotWindowStore.live(30, 60_000L)));
+            out.close();
+            return;
+        }
+
         ConectionDDBB conector = new ConectionDDBB();
         Connection con = null;
         Map<String,Object> resp = new HashMap<>();
@@ -82,8 +89,15 @@ public class UserLiveServlet extends HttpServlet {
             resp.put("stations", stations);
 
         } catch (Exception e) {
-            Log.log.error("Error building live data: {}", e);
-            resp.put("error", e.toString());
+            if (conector.failed(e)) {
+                Log.log.warn("Live data unavailable: {}", e.getMessage());
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "5");
+                resp.put("error", "database unavailable");
+            } else {
+                Log.log.error("Error building live data: {}", e);
+                resp.put("error", e.toString());
+            }
         } finally {
             conector.closeConnection(con);
             out.println(gson.toJson(resp));
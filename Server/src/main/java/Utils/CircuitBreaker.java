@@ -0,0 +1,110 @@
+package Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Logic.Log;
+
+/**
+ * Circuit breaker with the usual three states:
+ *  CLOSED    - calls go through; failureThreshold consecutive failures open it.
+ *  OPEN      - calls are refused at once for openMillis, so callers fail fast
+ *              instead of queueing behind a dead dependency.
+ *  HALF_OPEN - after openMillis one probe call is let through; its success
+ *              closes the breaker, its failure opens it again. A probe that
+ *              has not reported back after another openMillis is given up on
+ *              and the next call becomes the probe.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt = 0L;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+    private volatile long probeStartedAt = 0L;
+
+    private final AtomicLong trips = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /** True if a call may proceed now; false means fail fast. */
+    public boolean allowRequest() {
+        State s = state;
+        if (s == State.CLOSED) return true;
+        if (s == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            synchronized (this) {
+                if (state == State.OPEN) {
+                    state = State.HALF_OPEN;
+                    probeInFlight.set(false);
+                }
+            }
+        }
+        if (state == State.HALF_OPEN) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                // a probe that never reported back must not hold the breaker half-open
+                if (state == State.HALF_OPEN && (!probeInFlight.get() || now - probeStartedAt >= openMillis)) {
+                    probeInFlight.set(true);
+                    probeStartedAt = now;
+                    return true;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state != State.CLOSED) {
+            synchronized (this) {
+                if (state == State.HALF_OPEN) {
+                    state = State.CLOSED;
+                    Log.log.info("Circuit breaker {} closed", name);
+                }
+            }
+        }
+    }
+
+    public void onFailure() {
+        int n = consecutiveFailures.incrementAndGet();
+        State s = state;
+        if (s == State.HALF_OPEN || (s == State.CLOSED && n >= failureThreshold)) {
+            synchronized (this) {
+                if (state != State.OPEN) {
+                    state = State.OPEN;
+                    openedAt = System.currentTimeMillis();
+                    trips.incrementAndGet();
+                    Log.log.warn("Circuit breaker {} open for {} ms after {} consecutive failures", name, openMillis, n);
+                }
+            }
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("state", state.name());
+        m.put("consecutive_failures", consecutiveFailures.get());
+        m.put("trips", trips.get());
+        m.put("rejected", rejected.get());
+        return m;
+    }
+}
@@ -0,0 +1,24 @@
+package Utils;
+
+import java.io.File;
+
+/**
+ * Where the server keeps files that must outlive a restart (reading spool,
+ * ingest spill file, retention archives). Defaults to work/meteu under the
+ * Tomcat base directory rather than java.io.tmpdir, which systemd PrivateTmp
+ * and tmpfs mounts wipe on every restart. Each location can be overridden
+ * with its own system property.
+ */
+public final class DataDir {
+
+    private DataDir() {
+    }
+
+    /** The directory named by property, or child (may be null) under the default data directory. */
+    public static File resolve(String property, String child) {
+        String dir = System.getProperty(property);
+        if (dir != null && !dir.isEmpty()) return new File(dir);
+        File base = new File(new File(System.getProperty("catalina.base", System.getProperty("user.dir")), "work"), "meteu");
+        return child == null ? base : new File(base, child);
+    }
+}
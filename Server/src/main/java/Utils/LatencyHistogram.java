@@ -0,0 +1,79 @@
+package Utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds, in the spirit of
+ * HdrHistogram: each power of two is split into 32 linear sub-buckets, so any
+ * recorded value is reported within ~3% while the whole range up to
+ * Long.MAX_VALUE fits in a fixed array. record() is a couple of atomic adds and
+ * is safe to call from any number of threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public double meanNanos() {
+        long n = total.get();
+        return n == 0 ? 0.0 : sum.get() / (double) n;
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /** Value at the given percentile (0-100), as the midpoint of its bucket. */
+    public long percentileNanos(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(max.get(), midpointOf(i));
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0L);
+        total.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    static int indexOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long midpointOf(int index) {
+        if (index < SUB_COUNT) return index;
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        long lower = (long) (SUB_COUNT + index % SUB_COUNT) << (exp - SUB_BITS);
+        return lower + width / 2;
+    }
+}
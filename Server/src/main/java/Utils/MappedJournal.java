@@ -0,0 +1,254 @@
+package Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of byte records, split into fixed-size
+ * segment files (name-000001.seg, ...). Records are appended at the tail and
+ * consumed from the head: read() returns a batch without moving the head and
+ * ack() moves it once the batch has been handled, so delivery is at-least-once.
+ * Fully consumed segments are deleted; the head position survives restarts in
+ * name.pos and the tail is recovered by scanning for the last valid record.
+ *
+ * Record layout: int length, int crc32, long appendMillis, payload. A zero
+ * length marks the end of written data and -1 marks a segment that was rolled.
+ */
+public class MappedJournal {
+
+    private static final int HEADER = 16;
+    private static final int ROLLED = -1;
+
+    /** A batch of records read from the head; pass it back to ack() once handled. */
+    public static final class Batch {
+        public final List<byte[]> records;
+        final long endSeq;
+        final int endOffset;
+
+        Batch(List<byte[]> records, long endSeq, int endOffset) {
+            this.records = records;
+            this.endSeq = endSeq;
+            this.endOffset = endOffset;
+        }
+    }
+
+    private final File dir;
+    private final String name;
+    private final int segmentSize;
+
+    // segment seq -> mapped buffer
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private long writeSeq;
+    private MappedByteBuffer writeBuf;
+    private long readSeq;
+    private int readOffset;
+    private final RandomAccessFile posFile;
+
+    private long pendingRecords = 0L;
+    private long pendingBytes = 0L;
+    private final CRC32 crc = new CRC32();
+
+    public MappedJournal(File dir, String name, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create journal directory " + dir);
+
+        File[] files = dir.listFiles((d, n) -> n.startsWith(name + "-") && n.endsWith(".seg"));
+        if (files != null) {
+            for (File f : files) {
+                String n = f.getName();
+                segments.put(Long.parseLong(n.substring(name.length() + 1, n.length() - 4)), map(f));
+            }
+        }
+        posFile = new RandomAccessFile(new File(dir, name + ".pos"), "rw");
+        if (posFile.length() >= 12) {
+            readSeq = posFile.readLong();
+            readOffset = posFile.readInt();
+        }
+        if (segments.isEmpty()) {
+            readSeq = 1;
+            readOffset = 0;
+            segments.put(1L, map(segmentFile(1)));
+        }
+        // drop segments that were consumed but not yet deleted
+        while (segments.firstKey() < readSeq && segments.size() > 1) deleteSegment(segments.firstKey());
+        if (readSeq < segments.firstKey()) {
+            readSeq = segments.firstKey();
+            readOffset = 0;
+        }
+        recover();
+    }
+
+    /** Scan from the head to find the tail and count pending records. */
+    private void recover() {
+        long seq = readSeq;
+        int off = readOffset;
+        while (true) {
+            MappedByteBuffer buf = segments.get(seq);
+            int len = off + HEADER <= segmentSize ? buf.getInt(off) : ROLLED;
+            if (len == ROLLED && segments.higherKey(seq) != null) {
+                seq = segments.higherKey(seq);
+                off = 0;
+                continue;
+            }
+            if (len <= 0 || off + HEADER + len > segmentSize || !crcMatches(buf, off, len)) {
+                // end of data (or a torn record from a crash): the tail goes here
+                writeSeq = seq;
+                writeBuf = buf;
+                writeBuf.position(Math.min(off, segmentSize));
+                break;
+            }
+            pendingRecords++;
+            pendingBytes += len;
+            off += HEADER + len;
+        }
+        // later segments can only hold garbage if the tail was torn; discard them
+        while (segments.lastKey() > writeSeq) deleteSegment(segments.lastKey());
+    }
+
+    public synchronized void append(byte[] data, int off, int len) throws IOException {
+        if (len <= 0 || HEADER + len > segmentSize) throw new IOException("Record of " + len + " bytes does not fit a journal segment");
+        if (writeBuf.position() + HEADER + len > segmentSize) roll();
+        int at = writeBuf.position();
+        crc.reset();
+        crc.update(data, off, len);
+        writeBuf.putInt(at + 4, (int) crc.getValue());
+        writeBuf.putLong(at + 8, System.currentTimeMillis());
+        writeBuf.put(at + HEADER, data, off, len);
+        // terminate the data so stale records left behind a rewind or a torn write are never read
+        int next = at + HEADER + len;
+        if (next + 4 <= segmentSize) writeBuf.putInt(next, 0);
+        // length last, so a reader never sees a half-written record
+        writeBuf.putInt(at, len);
+        writeBuf.position(at + HEADER + len);
+        pendingRecords++;
+        pendingBytes += len;
+    }
+
+    private void roll() throws IOException {
+        int at = writeBuf.position();
+        if (at + 4 <= segmentSize) writeBuf.putInt(at, ROLLED);
+        writeBuf.force();
+        writeSeq++;
+        writeBuf = map(segmentFile(writeSeq));
+        segments.put(writeSeq, writeBuf);
+    }
+
+    /** Flush appended records to disk. */
+    public synchronized void force() {
+        writeBuf.force();
+    }
+
+    /** Read up to max records from the head without consuming them. */
+    public synchronized Batch read(int max) {
+        List<byte[]> out = new ArrayList<>(Math.min(max, 1024));
+        long seq = readSeq;
+        int off = readOffset;
+        while (out.size() < max) {
+            MappedByteBuffer buf = segments.get(seq);
+            int len = off + HEADER <= segmentSize ? buf.getInt(off) : ROLLED;
+            if (len == ROLLED) {
+                Long next = segments.higherKey(seq);
+                if (next == null) break;
+                seq = next;
+                off = 0;
+                continue;
+            }
+            if (len <= 0 || (seq == writeSeq && off >= writeBuf.position())) break;
+            byte[] rec = new byte[len];
+            ByteBuffer view = buf.duplicate();
+            view.position(off + HEADER);
+            view.get(rec);
+            out.add(rec);
+            off += HEADER + len;
+        }
+        return new Batch(out, seq, off);
+    }
+
+    /** Consume a batch previously returned by read(). */
+    public synchronized void ack(Batch batch) throws IOException {
+        for (byte[] r : batch.records) {
+            pendingRecords--;
+            pendingBytes -= r.length;
+        }
+        while (readSeq < batch.endSeq) {
+            deleteSegment(readSeq);
+            readSeq = segments.ceilingKey(readSeq + 1);
+        }
+        readOffset = batch.endOffset;
+        if (pendingRecords == 0 && readSeq == writeSeq) {
+            // fully drained: rewind the tail segment so it is reused from the start
+            writeBuf.putInt(0, 0);
+            writeBuf.position(0);
+            readOffset = 0;
+        }
+        posFile.seek(0);
+        posFile.writeLong(readSeq);
+        posFile.writeInt(readOffset);
+    }
+
+    /** Append time of the oldest pending record, or 0 when the journal is empty. */
+    public synchronized long oldestAppendMillis() {
+        if (pendingRecords == 0) return 0L;
+        long seq = readSeq;
+        int off = readOffset;
+        MappedByteBuffer buf = segments.get(seq);
+        if (off + HEADER > segmentSize || buf.getInt(off) == ROLLED) {
+            buf = segments.get(segments.higherKey(seq));
+            off = 0;
+        }
+        return buf.getLong(off + 8);
+    }
+
+    public synchronized long pendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public synchronized void close() throws IOException {
+        writeBuf.force();
+        posFile.close();
+    }
+
+    private boolean crcMatches(MappedByteBuffer buf, int off, int len) {
+        byte[] tmp = new byte[len];
+        ByteBuffer view = buf.duplicate();
+        view.position(off + HEADER);
+        view.get(tmp);
+        crc.reset();
+        crc.update(tmp, 0, len);
+        return (int) crc.getValue() == buf.getInt(off + 4);
+    }
+
+    private void deleteSegment(long seq) {
+        segments.remove(seq);
+        // the mapping is released by the GC; on Linux the file can be unlinked while mapped
+        segmentFile(seq).delete();
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, String.format("%s-%06d.seg", name, seq));
+    }
+
+    private MappedByteBuffer map(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw"); FileChannel ch = raf.getChannel()) {
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and throughput of the stages between messageArrived and commit. A
+ * stage is timed with
+ *
+ *   long t0 = System.nanoTime();
+ *   ...
+ *   StageMetrics.DECODE.record(t0);
+ *
+ * and listed, with p50/p99/p999 and messages per second, on /admin/metrics.
+ */
+public class StageMetrics {
+
+    private static final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    // throughput is averaged over the last RATE_SECONDS complete seconds
+    private static final int RATE_SECONDS = 10;
+    private static final int RATE_SLOTS = 16;
+
+    /** Time a message waits in its ingest lane. */
+    public static final Stage QUEUE_WAIT = register("queue_wait");
+    /** Payload bytes to SensorReading. */
+    public static final Stage DECODE = register("decode");
+    /** Whole worker-side handling of one message: decode, dedup and every consumer. */
+    public static final Stage PIPELINE = register("pipeline");
+    /** Borrowing a JDBC connection from the pool. */
+    public static final Stage DB_CONNECT = register("db_connect");
+    /** executeBatch of a sensor_readings flush. */
+    public static final Stage BATCH_INSERT = register("batch_insert");
+    /** Rollup upserts of a sensor_readings flush. */
+    public static final Stage ROLLUP_UPSERT = register("rollup_upsert");
+    /** Commit of a sensor_readings flush. */
+    public static final Stage BATCH_COMMIT = register("batch_commit");
+    /** parameter_ranges lookup of one measurement. */
+    public static final Stage RANGE_LOOKUP = register("range_lookup");
+    /** sensor_alarms reads and writes of one measurement. */
+    public static final Stage ALARM_DB = register("alarm_db");
+    /** Publishing one WTH001/WTH002 alert. */
+    public static final Stage ALERT_PUBLISH = register("alert_publish");
+
+    public static final class Stage {
+        private final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLongArray slotSecond = new AtomicLongArray(RATE_SLOTS);
+        private final AtomicLongArray slotCount = new AtomicLongArray(RATE_SLOTS);
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        /** Record the time elapsed since startNanos (a System.nanoTime() value). */
+        public void record(long startNanos) {
+            long now = System.nanoTime();
+            histogram.record(now - startNanos);
+            long second = now / 1_000_000_000L;
+            int slot = (int) (second % RATE_SLOTS);
+            long stamp = slotSecond.get(slot);
+            if (stamp != second && slotSecond.compareAndSet(slot, stamp, second)) slotCount.set(slot, 0L);
+            slotCount.incrementAndGet(slot);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        double perSecond() {
+            long second = System.nanoTime() / 1_000_000_000L;
+            long n = 0L;
+            for (int i = 0; i < RATE_SLOTS; i++) {
+                long age = second - slotSecond.get(i);
+                if (age >= 1 && age <= RATE_SECONDS) n += slotCount.get(i);
+            }
+            return n / (double) RATE_SECONDS;
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", histogram.count());
+            m.put("per_s", perSecond());
+            m.put("mean_ms", histogram.meanNanos() / 1_000_000.0);
+            m.put("p50_ms", histogram.percentileNanos(50) / 1_000_000.0);
+            m.put("p99_ms", histogram.percentileNanos(99) / 1_000_000.0);
+            m.put("p999_ms", histogram.percentileNanos(99.9) / 1_000_000.0);
+            m.put("max_ms", histogram.maxNanos() / 1_000_000.0);
+            return m;
+        }
+    }
+
+    /** Get or create the stage with this name. */
+    public static synchronized Stage register(String name) {
+        return stages.computeIfAbsent(name, Stage::new);
+    }
+
+    public static synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (Stage s : stages.values()) m.put(s.name, s.snapshot());
+        return m;
+    }
+
+    /** Clear all latency histograms, e.g. after a deploy. */
+    public static synchronized void reset() {
+        for (Stage s : stages.values()) s.histogram.reset();
+    }
+}
@@ -0,0 +1,303 @@
+package Utils;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Hand-written timestamp parsing and formatting for the ingest and query paths.
+ * Works on epoch milliseconds in a long: no regex, no intermediate strings and
+ * no per-call SimpleDateFormat. Wall-clock fields are interpreted in the JVM
+ * default zone, like Timestamp.valueOf did; the zone offset is cached for the
+ * period between two transitions so the common case never touches java.time.
+ *
+ * Parse methods return NONE instead of throwing, except parseParamStrict.
+ */
+public final class TimestampUtil {
+
+    /** Returned by the parse methods when the input is not a valid timestamp. */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final long MS_PER_DAY = 86_400_000L;
+    private static final String PARAM_FORMAT_ERROR = "Formato de timestamp inválido. Se espera: yyyy-MM-ddHH:mm:ss (ej. 2025-12-0504:02:33)";
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final ZoneRules RULES = ZONE.getRules();
+
+    /** Offset valid for UTC instants in [fromUtc, toUtc). */
+    private static final class OffsetWindow {
+        final long fromUtc;
+        final long toUtc;
+        final long offsetMs;
+
+        OffsetWindow(long fromUtc, long toUtc, long offsetMs) {
+            this.fromUtc = fromUtc;
+            this.toUtc = toUtc;
+            this.offsetMs = offsetMs;
+        }
+    }
+
+    private static volatile OffsetWindow window = windowFor(System.currentTimeMillis());
+
+    // scratch used to parse Strings through the byte[] parser without allocating
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64]);
+
+    private TimestampUtil() {}
+
+    // ---- parsing ------------------------------------------------------------
+
+    /**
+     * Tolerant ISO-8601 parser for station timestamps: yyyy-M-d, 'T' or space,
+     * H:m:s, optional fraction (anything after its digits is ignored) and an
+     * optional trailing Z. As before, the wall-clock fields are read in the
+     * default zone and a Z does not switch to UTC.
+     */
+    public static long parseIso(byte[] b, int from, int to) {
+        while (from < to && b[from] <= ' ') from++;
+        while (to > from && b[to - 1] <= ' ') to--;
+        if (to > from && b[to - 1] == 'Z') to--;
+
+        int p = from;
+        int year = 0;
+        for (int i = 0; i < 4; i++, p++) {
+            if (p >= to || !isDigit(b[p])) return NONE;
+            year = year * 10 + (b[p] - '0');
+        }
+        if (p >= to || b[p++] != '-') return NONE;
+        int month = 0, n = 0;
+        while (p < to && isDigit(b[p]) && n < 2) { month = month * 10 + (b[p++] - '0'); n++; }
+        if (n == 0 || p >= to || b[p++] != '-') return NONE;
+        int day = 0;
+        n = 0;
+        while (p < to && isDigit(b[p]) && n < 2) { day = day * 10 + (b[p++] - '0'); n++; }
+        if (n == 0 || p >= to || (b[p] != 'T' && b[p] != ' ')) return NONE;
+        p++;
+
+        int hour = 0, minute = 0, second = 0;
+        for (int field = 0; field < 3; field++) {
+            int v = 0;
+            n = 0;
+            while (p < to && isDigit(b[p]) && n < 2) { v = v * 10 + (b[p++] - '0'); n++; }
+            if (n == 0) return NONE;
+            if (field == 0) hour = v; else if (field == 1) minute = v; else second = v;
+            if (field < 2) {
+                if (p >= to || b[p++] != ':') return NONE;
+            }
+        }
+        int millis = 0;
+        if (p < to) {
+            if (b[p++] != '.') return NONE;
+            // first three fraction digits; the rest (and any zone suffix) is ignored
+            int scale = 100;
+            while (p < to && isDigit(b[p]) && scale > 0) {
+                millis += (b[p++] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return toEpochMillis(year, month, day, hour, minute, second, millis);
+    }
+
+    public static long parseIso(CharSequence s) {
+        if (s == null) return NONE;
+        byte[] b = ascii(s);
+        return b == null ? NONE : parseIso(b, 0, s.length());
+    }
+
+    /**
+     * Parse a timestamp accepted by the project: epoch milliseconds as a digit
+     * string, or the tolerant ISO-8601 form of parseIso.
+     */
+    public static long parse(CharSequence s) {
+        if (s == null) return NONE;
+        byte[] b = ascii(s);
+        if (b == null) return NONE;
+        int from = 0, to = s.length();
+        while (from < to && b[from] <= ' ') from++;
+        while (to > from && b[to - 1] <= ' ') to--;
+        if (from == to) return NONE;
+        long ms = 0;
+        int p = from;
+        while (p < to && isDigit(b[p])) {
+            if (ms > (Long.MAX_VALUE - 9) / 10) return NONE;
+            ms = ms * 10 + (b[p++] - '0');
+        }
+        if (p == to) return ms;
+        return parseIso(b, from, to);
+    }
+
+    /**
+     * Parse a servlet parameter in the strict format yyyy-MM-ddHH:mm:ss
+     * (e.g. 2025-12-0504:02:33). Throws IllegalArgumentException otherwise.
+     */
+    public static long parseParamStrict(CharSequence s) {
+        if (s == null) throw new IllegalArgumentException(PARAM_FORMAT_ERROR);
+        int from = 0, to = s.length();
+        while (from < to && s.charAt(from) <= ' ') from++;
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        if (to - from != 18) throw new IllegalArgumentException(PARAM_FORMAT_ERROR);
+        // positions: yyyy-MM-ddHH:mm:ss
+        if (s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-' || s.charAt(from + 12) != ':' || s.charAt(from + 15) != ':') {
+            throw new IllegalArgumentException(PARAM_FORMAT_ERROR);
+        }
+        int year = digits(s, from, 4);
+        int month = digits(s, from + 5, 2);
+        int day = digits(s, from + 8, 2);
+        int hour = digits(s, from + 10, 2);
+        int minute = digits(s, from + 13, 2);
+        int second = digits(s, from + 16, 2);
+        long ms = toEpochMillis(year, month, day, hour, minute, second, 0);
+        if (ms == NONE) throw new IllegalArgumentException(PARAM_FORMAT_ERROR);
+        return ms;
+    }
+
+    private static int digits(CharSequence s, int at, int count) {
+        int v = 0;
+        for (int i = 0; i < count; i++) {
+            char c = s.charAt(at + i);
+            if (c < '0' || c > '9') throw new IllegalArgumentException(PARAM_FORMAT_ERROR);
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    // ---- formatting ---------------------------------------------------------
+
+    /** Format as the project's output format yyyy-MM-ddHH:mm:ss (default zone). */
+    public static String format(long epochMillis) {
+        long local = epochMillis + offsetAtUtc(epochMillis);
+        long days = Math.floorDiv(local, MS_PER_DAY);
+        int msOfDay = (int) Math.floorMod(local, MS_PER_DAY);
+
+        // civil date from days since 1970-01-01 (H. Hinnant)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        if (year < 1900 || year > 9999) {
+            // outside the fast path (Julian calendar, 5-digit years): defer to the JDK
+            return new SimpleDateFormat("yyyy-MM-ddHH:mm:ss").format(new java.util.Date(epochMillis));
+        }
+
+        int secs = msOfDay / 1000;
+        char[] c = new char[18];
+        put4(c, 0, year);
+        c[4] = '-';
+        put2(c, 5, month);
+        c[7] = '-';
+        put2(c, 8, day);
+        put2(c, 10, secs / 3600);
+        c[12] = ':';
+        put2(c, 13, (secs / 60) % 60);
+        c[15] = ':';
+        put2(c, 16, secs % 60);
+        return new String(c);
+    }
+
+    public static String format(Timestamp ts) {
+        return ts == null ? null : format(ts.getTime());
+    }
+
+    private static void put2(char[] c, int at, int v) {
+        c[at] = (char) ('0' + v / 10);
+        c[at + 1] = (char) ('0' + v % 10);
+    }
+
+    private static void put4(char[] c, int at, int v) {
+        put2(c, at, v / 100);
+        put2(c, at + 2, v % 100);
+    }
+
+    // ---- calendar / zone ----------------------------------------------------
+
+    /** Wall-clock fields in the default zone to epoch millis, NONE if a field is out of range. */
+    static long toEpochMillis(int year, int month, int day, int hour, int minute, int second, int millis) {
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            return NONE;
+        }
+        if (year < 1900) {
+            // Julian/Gregorian cutover and historic zone rules: defer to the JDK
+            try {
+                return LocalDateTime.of(year, month, day, hour, minute, second, millis * 1_000_000)
+                        .atZone(ZONE).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+            } catch (Exception e) {
+                return NONE;
+            }
+        }
+        // days from civil (H. Hinnant)
+        int y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097 + doe - 719468;
+        long local = days * MS_PER_DAY + hour * 3_600_000L + minute * 60_000L + second * 1000L + millis;
+        return localToUtc(local, year, month, day, hour, minute, second, millis);
+    }
+
+    private static long localToUtc(long local, int year, int month, int day, int hour, int minute, int second, int millis) {
+        OffsetWindow w = window;
+        long utc = local - w.offsetMs;
+        // a day of margin on both sides keeps DST gaps/overlaps on the exact path;
+        // overlaps resolve to the later offset, as java.util.Date did
+        if (utc - MS_PER_DAY >= w.fromUtc && utc + MS_PER_DAY < w.toUtc) return utc;
+        utc = LocalDateTime.of(year, month, day, hour, minute, second, millis * 1_000_000)
+                .atZone(ZONE).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+        window = windowFor(utc);
+        return utc;
+    }
+
+    private static long offsetAtUtc(long utc) {
+        OffsetWindow w = window;
+        if (utc >= w.fromUtc && utc < w.toUtc) return w.offsetMs;
+        w = windowFor(utc);
+        window = w;
+        return w.offsetMs;
+    }
+
+    private static OffsetWindow windowFor(long utc) {
+        Instant at = Instant.ofEpochMilli(utc);
+        ZoneOffsetTransition prev = RULES.previousTransition(at);
+        ZoneOffsetTransition next = RULES.nextTransition(at);
+        long from = prev == null ? Long.MIN_VALUE / 2 : prev.toEpochSecond() * 1000L;
+        long to = next == null ? Long.MAX_VALUE / 2 : next.toEpochSecond() * 1000L;
+        return new OffsetWindow(from, to, RULES.getOffset(at).getTotalSeconds() * 1000L);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2: return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Copy an ASCII CharSequence into this thread's scratch buffer; null if it has non-ASCII chars. */
+    private static byte[] ascii(CharSequence s) {
+        int len = s.length();
+        byte[] b = SCRATCH.get();
+        if (b.length < len) {
+            b = new byte[Math.max(len, b.length * 2)];
+            SCRATCH.set(b);
+        }
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 0x7f) return null;
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+}